@@ -0,0 +1,71 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.transaction.service.TransactionRecord;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The shapes of the data sets the benchmarks are run against. Every shape has the ids 0 to size - 1.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public enum DataShape {
+    /**
+     * Transactions without a parent, all of the same type
+     */
+    FLAT,
+    /**
+     * A single chain, every transaction being the child of the previous one
+     */
+    DEEP_CHAIN,
+    /**
+     * A single root with all the other transactions as its direct children
+     */
+    WIDE_FANOUT,
+    /**
+     * Transactions without a parent spread over many types, ten transactions per type
+     */
+    MANY_TYPES;
+
+    private static final int TRANSACTIONS_PER_TYPE = 10;
+
+    /**
+     * Builds the transactions of the data set, every parent coming before its children
+     *
+     * @param size the number of transactions
+     * @return the transactions in insertion order
+     */
+    public List<TransactionRecord> build(int size) {
+        List<TransactionRecord> transactions = new ArrayList<>(size);
+        for (long id = 0; id < size; id++) {
+            transactions.add(new TransactionRecord(id, getType(id), new BigDecimal(id % 100 + 1), getParentId(id)));
+        }
+        return transactions;
+    }
+
+    /**
+     * Returns the type of a transaction of the data set
+     *
+     * @param id the id of the transaction
+     * @return the type of the transaction
+     */
+    public String getType(long id) {
+        return this == MANY_TYPES ? "type" + id / TRANSACTIONS_PER_TYPE : name().toLowerCase();
+    }
+
+    private Long getParentId(long id) {
+        if (id == 0) {
+            return null;
+        }
+        switch (this) {
+            case DEEP_CHAIN:
+                return id - 1;
+            case WIDE_FANOUT:
+                return 0L;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.TransactionApplication;
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.service.InvalidTransactionType;
+import net.flanche.transactionapp.transaction.service.TransactionService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reads of the deepest transaction of a chain in the JPA store, with the id cache and the hibernate caches
+ * disabled so every lookup reaches the database. Besides the time of a read, the number of SQL statements prepared per read is
+ * printed at the end of each trial, which stays constant as the chain gets deeper now that parents are loaded lazily.
+ * Run with mvn -P benchmark test-compile exec:exec -Djmh.args="ParentLoadingBenchmark"
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ParentLoadingBenchmark {
+    @Param({"10", "100", "1000"})
+    private int depth;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private Statistics statistics;
+    private String deepestType;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(TransactionApplication.class)
+                .web(false)
+                // passed as command line arguments, default properties would lose to application.properties
+                .run("--transaction.store=jpa", "--transaction.cache-size=0", "--spring.jpa.show-sql=false",
+                        "--spring.jpa.properties.hibernate.generate_statistics=true",
+                        "--spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                        "--spring.jpa.properties.hibernate.cache.use_query_cache=false");
+        transactionService = context.getBean(TransactionService.class);
+        transactionService.saveTransactions(DataShape.DEEP_CHAIN.build(depth + 1));
+        deepestType = DataShape.DEEP_CHAIN.getType(depth);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStatistics() {
+        statistics.clear();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportStatistics() {
+        long reads = statistics.getTransactionCount();
+        System.out.printf("%n%s depth %d: %.1f statements per read%n", getClass().getSimpleName(), depth,
+                reads == 0 ? 0.0 : (double) statistics.getPrepareStatementCount() / reads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Transaction> getDeepestTransactionById() {
+        return transactionService.getTransactionById(depth);
+    }
+
+    @Benchmark
+    public List<Transaction> getTransactionsOfDeepestType() throws InvalidTransactionType {
+        return transactionService.getTransactionsOfType(deepestType);
+    }
+}
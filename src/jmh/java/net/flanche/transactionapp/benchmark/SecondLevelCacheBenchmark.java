@@ -0,0 +1,92 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.TransactionApplication;
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.service.InvalidTransactionId;
+import net.flanche.transactionapp.transaction.service.InvalidTransactionType;
+import net.flanche.transactionapp.transaction.service.TransactionService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reads of the JPA store with the hibernate second-level and query caches enabled and disabled, with
+ * the id cache of the store disabled so every lookup reaches hibernate. Besides the time of a read, the number of
+ * SQL statements prepared per read and the hit ratio of the caches are printed at the end of each iteration.
+ * Run with mvn -P benchmark test-compile exec:exec -Djmh.args="SecondLevelCacheBenchmark"
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SecondLevelCacheBenchmark {
+    private static final int SIZE = 1000;
+
+    @Param({"true", "false"})
+    private boolean cache;
+    @Param({"MANY_TYPES", "WIDE_FANOUT"})
+    private DataShape shape;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private Statistics statistics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(TransactionApplication.class)
+                .web(false)
+                // passed as command line arguments, default properties would lose to application.properties
+                .run("--transaction.store=jpa", "--transaction.cache-size=0", "--spring.jpa.show-sql=false",
+                        "--spring.jpa.properties.hibernate.cache.use_second_level_cache=" + cache,
+                        "--spring.jpa.properties.hibernate.cache.use_query_cache=" + cache);
+        transactionService = context.getBean(TransactionService.class);
+        transactionService.saveTransactions(shape.build(SIZE));
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStatistics() {
+        statistics.clear();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportStatistics() {
+        long reads = statistics.getTransactionCount();
+        System.out.printf("%n%s cache %s %s: %.2f statements per read, second-level cache %d hits %d misses, query cache %d hits %d misses%n",
+                getClass().getSimpleName(), cache, shape,
+                reads == 0 ? 0.0 : (double) statistics.getPrepareStatementCount() / reads,
+                statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount(),
+                statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Transaction> getTransactionById() {
+        return transactionService.getTransactionById(ThreadLocalRandom.current().nextInt(SIZE));
+    }
+
+    @Benchmark
+    public List<Transaction> getTransactionsOfType() throws InvalidTransactionType {
+        return transactionService.getTransactionsOfType(shape.getType(ThreadLocalRandom.current().nextInt(SIZE)));
+    }
+
+    @Benchmark
+    public boolean checkTotalAmountOfChildrenTransactions() throws InvalidTransactionId {
+        return transactionService.checkTotalAmountOfChildrenTransactions(0);
+    }
+}
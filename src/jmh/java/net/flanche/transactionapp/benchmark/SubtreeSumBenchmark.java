@@ -0,0 +1,76 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import net.flanche.transactionapp.transaction.service.InvalidTransactionId;
+import net.flanche.transactionapp.transaction.service.impl.InMemoryTransactionServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the recomputed sum of a large subtree of the in-memory store for a number of threads of the sum pool.
+ * The wide tree is a root with a thousand children each having a thousand leaves, the deep one is a root with a
+ * hundred chains of ten thousand transactions. A threshold larger than the tree gives the sequential traversal.
+ * Run with mvn -P benchmark test-compile exec:exec -Djmh.args="SubtreeSumBenchmark -p parallelism=1,2,4,8,16"
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubtreeSumBenchmark {
+    private static final int AMOUNT_SCALE = 2;
+    private static final long ROOT_ID = 0;
+    private static final GaugeService NO_GAUGES = (name, value) -> {
+    };
+
+    @Param({"wide", "deep"})
+    private String shape;
+    @Param({"1", "2", "4", "8"})
+    private int parallelism;
+    @Param({"10000", "100000000"})
+    private long threshold;
+
+    private InMemoryTransactionServiceImpl transactionService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        transactionService = new InMemoryTransactionServiceImpl(AMOUNT_SCALE, "", 0, false, 0, threshold, parallelism, NO_GAUGES, new TransactionMetrics());
+        BigDecimal amount = new BigDecimal("12.34");
+        transactionService.saveTransaction(ROOT_ID, "type", amount);
+        long id = ROOT_ID + 1;
+        if ("wide".equals(shape)) {
+            for (int child = 0; child < 1000; child++) {
+                long childId = id++;
+                transactionService.saveTransaction(childId, "type", amount, ROOT_ID);
+                for (int leaf = 0; leaf < 1000; leaf++) {
+                    transactionService.saveTransaction(id++, "type", amount, childId);
+                }
+            }
+        } else {
+            for (int chain = 0; chain < 100; chain++) {
+                long parentId = ROOT_ID;
+                for (int link = 0; link < 10000; link++) {
+                    transactionService.saveTransaction(id, "type", amount, parentId);
+                    parentId = id++;
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        transactionService.close();
+    }
+
+    @Benchmark
+    public boolean sumSubtree() throws InvalidTransactionId {
+        return transactionService.checkTotalAmountOfChildrenTransactions(ROOT_ID);
+    }
+}
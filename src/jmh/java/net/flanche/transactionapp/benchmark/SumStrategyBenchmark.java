@@ -0,0 +1,82 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.TransactionApplication;
+import net.flanche.transactionapp.transaction.service.InvalidTransactionId;
+import net.flanche.transactionapp.transaction.service.TransactionRecord;
+import net.flanche.transactionapp.transaction.service.TransactionService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the sum strategies of the JPA store on trees of increasing depth and fan-out.
+ * The shape of a tree is given as fanout x depth, e.g. 8x4 is a root with 8 children per transaction down
+ * to 4 levels below it, while 1x1000 is a chain of 1000 transactions under the root.
+ * Run with mvn -P benchmark test-compile exec:exec -Djmh.args="SumStrategyBenchmark"
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SumStrategyBenchmark {
+    private static final long ROOT_ID = 0;
+
+    @Param({"MATERIALIZED", "RECURSIVE", "PATH", "TRAVERSAL"})
+    private String strategy;
+
+    @Param({"2x4", "2x8", "2x12", "8x2", "8x4", "32x2", "1x100", "1x1000"})
+    private String shape;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(TransactionApplication.class)
+                .web(false)
+                // passed as command line arguments, default properties would lose to application.properties
+                .run("--transaction.store=jpa", "--transaction.sum-strategy=" + strategy, "--spring.jpa.show-sql=false");
+        transactionService = context.getBean(TransactionService.class);
+        String[] dimensions = shape.split("x");
+        transactionService.saveTransactions(buildTree(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1])));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BigDecimal sumOfTree() throws InvalidTransactionId {
+        return transactionService.getTotalAmountOfChildrenTransactions(ROOT_ID);
+    }
+
+    /**
+     * Builds the transactions of a complete tree level by level, so every parent comes before its children
+     */
+    private static List<TransactionRecord> buildTree(int fanout, int depth) {
+        List<TransactionRecord> transactions = new ArrayList<>();
+        transactions.add(new TransactionRecord(ROOT_ID, "benchmark", BigDecimal.ONE, null));
+        long nextId = ROOT_ID + 1;
+        int levelStart = 0;
+        for (int level = 0; level < depth; level++) {
+            int levelEnd = transactions.size();
+            for (int parent = levelStart; parent < levelEnd; parent++) {
+                long parentId = transactions.get(parent).getId();
+                for (int child = 0; child < fanout; child++) {
+                    transactions.add(new TransactionRecord(nextId++, "benchmark", BigDecimal.ONE, parentId));
+                }
+            }
+            levelStart = levelEnd;
+        }
+        return transactions;
+    }
+}
@@ -0,0 +1,104 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import net.flanche.transactionapp.transaction.service.impl.InMemoryTransactionServiceImpl;
+import net.flanche.transactionapp.transaction.storage.TransactionLog;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the startup of the in-memory store from a transaction log of a given number of records: the raw read
+ * of the log, the full rebuild of the indexes and subtree totals from the log, and the rebuild from a snapshot of
+ * the same transactions. The log is a forest of chains of ten transactions spread over a hundred types.
+ * Run with mvn -P benchmark test-compile exec:exec -Djmh.args="TransactionLogReplayBenchmark -p records=100000000"
+ * <p>
+ * Measured on a single core with 5 GB of memory and the log in the page cache: opening and reading a log of 100M
+ * records takes about 1.5 s, 65M records/s. Rebuilding the store from 10M records takes about 11.5 s, 0.9M records/s,
+ * spent creating the nodes and indexing them, so a full rebuild of 100M records takes minutes and does not fit into
+ * that memory; startup relies on the snapshot to stay within seconds at that size.
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class TransactionLogReplayBenchmark {
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int CHAIN_LENGTH = 10;
+    private static final int TYPES = 100;
+    private static final int AMOUNT_SCALE = 2;
+    private static final GaugeService NO_GAUGES = (name, value) -> {
+    };
+
+    @Param({"1000000", "10000000"})
+    private long records;
+
+    private Path directory;
+    private Path snapshotDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("transaction-log");
+        try (TransactionLog log = new TransactionLog(directory, SEGMENT_SIZE, false)) {
+            for (long id = 0; id < records; id++) {
+                log.write(id, "type" + id % TYPES, 1234, AMOUNT_SCALE, id % CHAIN_LENGTH == 0 ? null : id - 1);
+            }
+        }
+        snapshotDirectory = Files.createTempDirectory("transaction-snapshot");
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, snapshotDirectory.resolve(file.getFileName()));
+            }
+        }
+        InMemoryTransactionServiceImpl transactionService = new InMemoryTransactionServiceImpl(AMOUNT_SCALE, snapshotDirectory.toString(), SEGMENT_SIZE, false, 0, 10000, 0, NO_GAUGES, new TransactionMetrics());
+        transactionService.snapshot();
+        transactionService.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(directory);
+        delete(snapshotDirectory);
+    }
+
+    @Benchmark
+    public long readLog() throws IOException {
+        long[] count = new long[1];
+        try (TransactionLog log = new TransactionLog(directory, SEGMENT_SIZE, false)) {
+            log.replay((id, parentId, hasParent, amount, amountScale, typeId) -> count[0]++);
+        }
+        return count[0];
+    }
+
+    @Benchmark
+    public InMemoryTransactionServiceImpl rebuildStore() throws IOException {
+        InMemoryTransactionServiceImpl transactionService = new InMemoryTransactionServiceImpl(AMOUNT_SCALE, directory.toString(), SEGMENT_SIZE, false, 0, 10000, 0, NO_GAUGES, new TransactionMetrics());
+        transactionService.close();
+        return transactionService;
+    }
+
+    @Benchmark
+    public InMemoryTransactionServiceImpl rebuildStoreFromSnapshot() throws IOException {
+        InMemoryTransactionServiceImpl transactionService = new InMemoryTransactionServiceImpl(AMOUNT_SCALE, snapshotDirectory.toString(), SEGMENT_SIZE, false, 0, 10000, 0, NO_GAUGES, new TransactionMetrics());
+        transactionService.close();
+        return transactionService;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,92 @@
+package net.flanche.transactionapp.benchmark;
+
+import net.flanche.transactionapp.TransactionApplication;
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.service.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the hot paths of the TransactionService for every store on the data shapes of DataShape.
+ * The save benchmarks insert new ids after the data set, so the data set grows during their measurement. The
+ * transactions saved with a parent are all added under the last transaction of the data set, which for
+ * DEEP_CHAIN is the deepest one and for WIDE_FANOUT a child of the root.
+ * Run with mvn -P benchmark test-compile exec:exec -Djmh.args="TransactionServiceBenchmark"
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TransactionServiceBenchmark {
+    private static final long ROOT_ID = 0;
+    private static final BigDecimal AMOUNT = new BigDecimal("10");
+
+    @Param({"jpa", "memory"})
+    private String store;
+
+    @Param({"FLAT", "DEEP_CHAIN", "WIDE_FANOUT", "MANY_TYPES"})
+    private DataShape shape;
+
+    @Param({"1000"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private AtomicLong nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(TransactionApplication.class)
+                .web(false)
+                // passed as command line arguments, default properties would lose to application.properties
+                .run("--transaction.store=" + store, "--spring.jpa.show-sql=false");
+        transactionService = context.getBean(TransactionService.class);
+        transactionService.saveTransactions(shape.build(size));
+        nextId = new AtomicLong(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Transaction saveTransaction() throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        return transactionService.saveTransaction(nextId.getAndIncrement(), shape.getType(size - 1), AMOUNT);
+    }
+
+    @Benchmark
+    public Transaction saveTransactionWithParent() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionAmount {
+        return transactionService.saveTransaction(nextId.getAndIncrement(), shape.getType(size - 1), AMOUNT, size - 1);
+    }
+
+    @Benchmark
+    public Optional<Transaction> getTransactionById() {
+        return transactionService.getTransactionById(randomId());
+    }
+
+    @Benchmark
+    public List<Transaction> getTransactionsOfType() throws InvalidTransactionType {
+        return transactionService.getTransactionsOfType(shape.getType(randomId()));
+    }
+
+    @Benchmark
+    public BigDecimal getTotalAmountOfChildrenTransactions() throws InvalidTransactionId {
+        return transactionService.getTotalAmountOfChildrenTransactions(ROOT_ID);
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(size);
+    }
+}
@@ -0,0 +1,270 @@
+package net.flanche.transactionapp.loadtest;
+
+import net.flanche.transactionapp.TransactionApplication;
+import net.flanche.transactionapp.metrics.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end load test of the REST API. It starts the application on Jetty on a free port, or drives the one given
+ * with --url, saves --seed transactions shaped as --shape trees, then sends the --mix of PUT, GET, /types and /sum
+ * requests from --threads client threads. The --warmup seconds are not measured, the --duration seconds after them
+ * are, and the throughput, the errors and the p50/p99/p999 latencies of every operation are printed at the end.
+ * <p>
+ * Without --rate every thread sends its next request as soon as the previous one is answered. With --rate the
+ * requests are sent on a fixed schedule and their latency is measured from the time they were due, so a stall of the
+ * application shows in the percentiles instead of just slowing the clients down.
+ * </p>
+ * <p>
+ * The --max-p99-ms, --max-p999-ms, --max-error-rate and --min-throughput options turn the run into a gate: the
+ * process exits with 1 when one of them is not met, 2 when the options are invalid and 0 otherwise.
+ * Run with mvn -P loadtest test-compile exec:exec -Dloadtest.args="--threads 64 --shape wide"
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class LoadTest {
+    private static final int SEED_BATCH_SIZE = 1000;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final int IO_ERROR = -1;
+
+    private final LoadTestOptions options;
+    private final String url;
+    private final Workload workload;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final OperationStats total = new OperationStats();
+
+    private LoadTest(LoadTestOptions options, String url) {
+        this.options = options;
+        this.url = url;
+        this.workload = new Workload(options.getShape(), options.getTypes());
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        // the JDK keeps 5 idle keep-alive connections per host by default, every client thread needs its own
+        System.setProperty("http.maxConnections", String.valueOf(options.getThreads()));
+
+        ConfigurableApplicationContext context = null;
+        String url = options.getUrl();
+        if (url == null) {
+            // passed as command line arguments, which take precedence over application.properties
+            List<String> properties = new ArrayList<>();
+            properties.add("--server.port=0");
+            properties.add("--spring.jpa.show-sql=false");
+            options.getProperties().forEach(property -> properties.add("--" + property));
+            context = new SpringApplicationBuilder(TransactionApplication.class).run(properties.toArray(new String[0]));
+            url = "http://localhost:" + ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+        }
+        boolean passed;
+        try {
+            LoadTest loadTest = new LoadTest(options, url);
+            loadTest.seed();
+            loadTest.run();
+            loadTest.report(System.out);
+            passed = loadTest.check(System.out);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Saves the seed transactions with PUT /transactions batches. The transactions of a batch are recorded as saved
+     * before it is sent, so later ones can use them as parents within the same batch.
+     */
+    private void seed() throws IOException {
+        TransactionClient client = new TransactionClient(url);
+        long start = System.nanoTime();
+        for (int saved = 0; saved < options.getSeed(); saved += SEED_BATCH_SIZE) {
+            List<String> records = new ArrayList<>(SEED_BATCH_SIZE);
+            for (int i = saved; i < Math.min(saved + SEED_BATCH_SIZE, options.getSeed()); i++) {
+                Workload.NewTransaction transaction = workload.next();
+                workload.saved(transaction);
+                records.add(transaction.toBatchJson());
+            }
+            int status = client.request("PUT", "/transactions", records.stream().collect(Collectors.joining(",", "[", "]")));
+            if (status != 200) {
+                throw new IOException("Seeding failed with status " + status);
+            }
+        }
+        System.out.printf("Seeded %d %s transactions in %.1f s%n", options.getSeed(), options.getShape().name().toLowerCase(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Runs the client threads through the warm-up and the measurement
+     */
+    private void run() throws InterruptedException {
+        Operation[] operations = options.getMix().keySet().toArray(new Operation[0]);
+        int[] cumulativeWeights = new int[operations.length];
+        int weights = 0;
+        for (int i = 0; i < operations.length; i++) {
+            weights += options.getMix().get(operations[i]);
+            cumulativeWeights[i] = weights;
+        }
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        long interval = options.getRate() > 0 ? (long) (options.getThreads() * 1e9 / options.getRate()) : 0;
+
+        System.out.printf("Driving %s with %d threads for %d s after a %d s warm-up%n", url, options.getThreads(),
+                options.getDurationSeconds(), options.getWarmupSeconds());
+        List<Thread> threads = new ArrayList<>(options.getThreads());
+        for (int thread = 0; thread < options.getThreads(); thread++) {
+            // the scheduled threads are spread over the interval so their requests do not all fall due at once
+            long firstRequest = start + interval * thread / options.getThreads();
+            threads.add(new Thread(() -> drive(operations, cumulativeWeights, firstRequest, interval, measureFrom, end),
+                    "load-test-" + thread));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Body of a client thread, sending requests until the end of the measurement
+     */
+    private void drive(Operation[] operations, int[] cumulativeWeights, long firstRequest, long interval, long measureFrom, long end) {
+        TransactionClient client = new TransactionClient(url);
+        long due = firstRequest;
+        while (true) {
+            if (interval > 0) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                due = System.nanoTime();
+            }
+            if (due >= end) {
+                return;
+            }
+            int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            int index = 0;
+            while (cumulativeWeights[index] <= pick) {
+                index++;
+            }
+            Operation operation = operations[index];
+            int status;
+            try {
+                status = operation.perform(client, workload);
+            } catch (IOException e) {
+                status = IO_ERROR;
+            }
+            if (due >= measureFrom) {
+                long latency = System.nanoTime() - due;
+                stats.get(operation).record(latency, status);
+                total.record(latency, status);
+            }
+            due += interval;
+        }
+    }
+
+    /**
+     * Prints the throughput, the errors and the latencies of every operation and of all of them together
+     */
+    private void report(PrintStream out) {
+        out.printf("%n%-8s %10s %8s %12s %9s %9s %9s %9s %9s%n", "op", "requests", "errors", "requests/s",
+                "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        stats.forEach((operation, operationStats) -> {
+            if (operationStats.latencies.getCount() > 0) {
+                report(out, operation.name().toLowerCase(), operationStats);
+            }
+        });
+        report(out, "all", total);
+        total.errorsByStatus.forEach((status, count) -> out.printf("%d requests failed with %s%n", count.sum(),
+                status == IO_ERROR ? "an I/O error" : "status " + status));
+        out.printf("%d transactions saved in total%n", workload.getSavedCount());
+    }
+
+    private void report(PrintStream out, String name, OperationStats operationStats) {
+        Histogram latencies = operationStats.latencies;
+        out.printf("%-8s %10d %8d %12.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, latencies.getCount(), operationStats.getErrors(),
+                (double) latencies.getCount() / options.getDurationSeconds(), latencies.getMean() / NANOS_PER_MILLI,
+                latencies.getValueAtQuantile(0.5) / NANOS_PER_MILLI, latencies.getValueAtQuantile(0.99) / NANOS_PER_MILLI,
+                latencies.getValueAtQuantile(0.999) / NANOS_PER_MILLI, latencies.getMax() / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Checks the results against the gates given in the options, printing every one that is not met
+     *
+     * @return true if every gate is met
+     */
+    private boolean check(PrintStream out) {
+        List<String> failures = new ArrayList<>();
+        stats.forEach((operation, operationStats) -> {
+            Histogram latencies = operationStats.latencies;
+            if (latencies.getCount() == 0) {
+                return;
+            }
+            double p99 = latencies.getValueAtQuantile(0.99) / NANOS_PER_MILLI;
+            if (p99 > options.getMaxP99Millis()) {
+                failures.add(String.format("p99 of %s is %.2f ms, above %.2f ms", operation.name().toLowerCase(), p99, options.getMaxP99Millis()));
+            }
+            double p999 = latencies.getValueAtQuantile(0.999) / NANOS_PER_MILLI;
+            if (p999 > options.getMaxP999Millis()) {
+                failures.add(String.format("p999 of %s is %.2f ms, above %.2f ms", operation.name().toLowerCase(), p999, options.getMaxP999Millis()));
+            }
+        });
+        long requests = total.latencies.getCount();
+        double errorRate = requests == 0 ? 0 : (double) total.getErrors() / requests;
+        if (errorRate > options.getMaxErrorRate()) {
+            failures.add(String.format("error rate is %.5f, above %.5f", errorRate, options.getMaxErrorRate()));
+        }
+        double throughput = (double) (requests - total.getErrors()) / options.getDurationSeconds();
+        if (throughput < options.getMinThroughput()) {
+            failures.add(String.format("throughput is %.1f requests/s, below %.1f", throughput, options.getMinThroughput()));
+        }
+        failures.forEach(failure -> out.println("FAILED: " + failure));
+        return failures.isEmpty();
+    }
+
+    /**
+     * The latencies in nanoseconds and the failed requests of an operation, by status
+     */
+    private static final class OperationStats {
+        private final Histogram latencies = new Histogram();
+        private final ConcurrentMap<Integer, LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+
+        private void record(long latency, int status) {
+            latencies.record(latency);
+            if (status != 200) {
+                errorsByStatus.computeIfAbsent(status, key -> new LongAdder()).increment();
+            }
+        }
+
+        private long getErrors() {
+            return errorsByStatus.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package net.flanche.transactionapp.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The options of a load test run, parsed from --name value pairs. Every option has a default, so a run without
+ * arguments starts the application locally and drives the default mix for half a minute.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class LoadTestOptions {
+    /**
+     * Description of the options, printed when they cannot be parsed
+     */
+    public static final String USAGE = String.join(System.lineSeparator(),
+            "Options, all optional:",
+            "  --url <url>               application to drive, e.g. http://host:4200; started locally on Jetty if missing",
+            "  --property <key=value>    property of the locally started application, repeatable, e.g. transaction.store=memory",
+            "  --threads <n>             concurrent client threads (32)",
+            "  --warmup <seconds>        duration of the warm-up, not measured (10)",
+            "  --duration <seconds>      duration of the measurement (30)",
+            "  --rate <requests/second>  target rate over all threads, 0 sends the next request as soon as a response arrives (0)",
+            "  --mix <op=weight,...>     relative weights of put, get, types and sum (put=25,get=50,types=5,sum=20)",
+            "  --shape <shape>           trees of the transactions: flat, wide, deep or mixed (mixed)",
+            "  --seed <n>                transactions saved before the warm-up, at least 100 (10000)",
+            "  --types <n>               distinct transaction types (100)",
+            "  --max-p99-ms <ms>         fails the run if the p99 latency of an operation is higher",
+            "  --max-p999-ms <ms>        fails the run if the p999 latency of an operation is higher",
+            "  --max-error-rate <ratio>  fails the run if the share of failed requests is higher, e.g. 0.001",
+            "  --min-throughput <n>      fails the run if fewer requests per second were answered");
+
+    private String url;
+    private final List<String> properties = new ArrayList<>();
+    private int threads = 32;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 30;
+    private double rate;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private Workload.Shape shape = Workload.Shape.MIXED;
+    private int seed = 10_000;
+    private int types = 100;
+    private double maxP99Millis = Double.NaN;
+    private double maxP999Millis = Double.NaN;
+    private double maxErrorRate = Double.NaN;
+    private double minThroughput = Double.NaN;
+
+    /**
+     * Parses the options
+     *
+     * @param args the --name value pairs
+     * @return the options
+     * @throws IllegalArgumentException if an option is unknown, misses its value or has an invalid one
+     */
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        options.parseMix("put=25,get=50,types=5,sum=20");
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "--url":
+                        options.url = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                        break;
+                    case "--property":
+                        options.properties.add(value);
+                        break;
+                    case "--threads":
+                        options.threads = Integer.parseInt(value);
+                        break;
+                    case "--warmup":
+                        options.warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        options.rate = Double.parseDouble(value);
+                        break;
+                    case "--mix":
+                        options.parseMix(value);
+                        break;
+                    case "--shape":
+                        options.shape = Workload.Shape.valueOf(value.toUpperCase());
+                        break;
+                    case "--seed":
+                        options.seed = Integer.parseInt(value);
+                        break;
+                    case "--types":
+                        options.types = Integer.parseInt(value);
+                        break;
+                    case "--max-p99-ms":
+                        options.maxP99Millis = Double.parseDouble(value);
+                        break;
+                    case "--max-p999-ms":
+                        options.maxP999Millis = Double.parseDouble(value);
+                        break;
+                    case "--max-error-rate":
+                        options.maxErrorRate = Double.parseDouble(value);
+                        break;
+                    case "--min-throughput":
+                        options.minThroughput = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value " + value + " of " + args[i], e);
+            }
+        }
+        if (options.threads < 1 || options.durationSeconds < 1 || options.warmupSeconds < 0 || options.rate < 0
+                || options.seed < 100 || options.types < 1) {
+            throw new IllegalArgumentException("Invalid options, see the usage");
+        }
+        return options;
+    }
+
+    /**
+     * Parses a mix such as put=25,get=50, the operations left out getting no weight
+     */
+    private void parseMix(String value) {
+        mix.clear();
+        for (String entry : value.split(",")) {
+            String[] operationAndWeight = entry.split("=");
+            if (operationAndWeight.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry " + entry);
+            }
+            int weight = Integer.parseInt(operationAndWeight[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight of " + operationAndWeight[0]);
+            }
+            mix.put(Operation.valueOf(operationAndWeight[0].trim().toUpperCase()), weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("The mix " + value + " has no weight");
+        }
+    }
+
+    /**
+     * Getter for the url attribute
+     *
+     * @return the url of the application to drive, null to start it locally
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Getter for the properties attribute
+     *
+     * @return the key=value properties of the locally started application
+     */
+    public List<String> getProperties() {
+        return Collections.unmodifiableList(properties);
+    }
+
+    /**
+     * Getter for the threads attribute
+     *
+     * @return the number of client threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Getter for the warmupSeconds attribute
+     *
+     * @return the duration of the warm-up in seconds
+     */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /**
+     * Getter for the durationSeconds attribute
+     *
+     * @return the duration of the measurement in seconds
+     */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * Getter for the rate attribute
+     *
+     * @return the target number of requests per second over all the threads, 0 for as many as possible
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Getter for the mix attribute
+     *
+     * @return the weight of every operation
+     */
+    public Map<Operation, Integer> getMix() {
+        return Collections.unmodifiableMap(mix);
+    }
+
+    /**
+     * Getter for the shape attribute
+     *
+     * @return the shape of the transaction trees
+     */
+    public Workload.Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Getter for the seed attribute
+     *
+     * @return the number of transactions saved before the warm-up
+     */
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Getter for the types attribute
+     *
+     * @return the number of distinct types
+     */
+    public int getTypes() {
+        return types;
+    }
+
+    /**
+     * Getter for the maxP99Millis attribute
+     *
+     * @return the highest accepted p99 latency in milliseconds, NaN if not checked
+     */
+    public double getMaxP99Millis() {
+        return maxP99Millis;
+    }
+
+    /**
+     * Getter for the maxP999Millis attribute
+     *
+     * @return the highest accepted p999 latency in milliseconds, NaN if not checked
+     */
+    public double getMaxP999Millis() {
+        return maxP999Millis;
+    }
+
+    /**
+     * Getter for the maxErrorRate attribute
+     *
+     * @return the highest accepted share of failed requests, NaN if not checked
+     */
+    public double getMaxErrorRate() {
+        return maxErrorRate;
+    }
+
+    /**
+     * Getter for the minThroughput attribute
+     *
+     * @return the lowest accepted number of answered requests per second, NaN if not checked
+     */
+    public double getMinThroughput() {
+        return minThroughput;
+    }
+}
@@ -0,0 +1,62 @@
+package net.flanche.transactionapp.loadtest;
+
+import java.io.IOException;
+
+/**
+ * The requests the load test sends, each one answering with 200 when it succeeds
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public enum Operation {
+    /**
+     * PUT /transaction/{id} of a new transaction
+     */
+    PUT {
+        @Override
+        int perform(TransactionClient client, Workload workload) throws IOException {
+            Workload.NewTransaction transaction = workload.next();
+            int status = client.request("PUT", "/transaction/" + transaction.getId(), transaction.toJson());
+            if (status == 200) {
+                workload.saved(transaction);
+            }
+            return status;
+        }
+    },
+    /**
+     * GET /transaction/{id} of a recently saved transaction
+     */
+    GET {
+        @Override
+        int perform(TransactionClient client, Workload workload) throws IOException {
+            return client.request("GET", "/transaction/" + workload.randomSavedId(), null);
+        }
+    },
+    /**
+     * GET /types/{type}, the ids of all the transactions of a type
+     */
+    TYPES {
+        @Override
+        int perform(TransactionClient client, Workload workload) throws IOException {
+            return client.request("GET", "/types/" + workload.randomType(), null);
+        }
+    },
+    /**
+     * GET /sum/{id} of a recently saved transaction
+     */
+    SUM {
+        @Override
+        int perform(TransactionClient client, Workload workload) throws IOException {
+            return client.request("GET", "/sum/" + workload.randomSavedId(), null);
+        }
+    };
+
+    /**
+     * Sends the request
+     *
+     * @param client   the client of the calling thread
+     * @param workload the transactions to pick from
+     * @return the status of the response
+     * @throws IOException if the application cannot be reached
+     */
+    abstract int perform(TransactionClient client, Workload workload) throws IOException;
+}
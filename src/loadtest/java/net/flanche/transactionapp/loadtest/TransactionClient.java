@@ -0,0 +1,67 @@
+package net.flanche.transactionapp.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal HTTP client of the REST API for the load test. It goes through HttpURLConnection so it adds no dependency
+ * and little overhead of its own: the response bodies are read to the end and discarded, which lets the JDK reuse the
+ * keep-alive connections, see the http.maxConnections system property set by LoadTest.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionClient {
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final String baseUrl;
+    private final byte[] discard = new byte[8192];
+
+    /**
+     * Constructor for the class, a client is used by a single thread
+     *
+     * @param baseUrl the url of the application up to the port, without a trailing slash
+     */
+    public TransactionClient(String baseUrl) {
+        this.baseUrl = baseUrl + "/transactionservice";
+    }
+
+    /**
+     * Sends a request and reads its response
+     *
+     * @param method   the HTTP method
+     * @param path     the path below /transactionservice
+     * @param jsonBody the JSON request body or null to send none
+     * @return the status of the response
+     * @throws IOException if the application cannot be reached
+     */
+    public int request(String method, String path, String jsonBody) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/json");
+        if (jsonBody != null) {
+            byte[] body = jsonBody.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (input != null) {
+            try (InputStream response = input) {
+                while (response.read(discard) >= 0) {
+                    // the body is only read so the connection can be reused
+                }
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,183 @@
+package net.flanche.transactionapp.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generates the transactions of the load test and picks the existing ones the reads go to. New transactions get
+ * consecutive ids and are attached to their parent according to the shape of the tree. Only saved transactions are
+ * used as parents and as targets of the reads: the ids of the latest saves are kept in a ring, so reads and new
+ * children favour recent transactions the way a live system does.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class Workload {
+    private static final int RECENT_IDS = 1 << 16;
+    private static final int ROOTS = 100;
+    private static final int CHAINS = 100;
+    private static final double MIXED_ROOT_PROBABILITY = 0.1;
+
+    /**
+     * The shapes of the transaction trees
+     */
+    public enum Shape {
+        /**
+         * Transactions without a parent
+         */
+        FLAT,
+        /**
+         * A hundred roots with all the other transactions as their direct children, so the sums of the roots cover
+         * large subtrees
+         */
+        WIDE,
+        /**
+         * A hundred chains every new transaction extends, so the trees get as deep as the number of saves allows
+         */
+        DEEP,
+        /**
+         * One transaction in ten is a root and the others are children of a recent transaction, which gives bushy
+         * trees a few levels deep
+         */
+        MIXED
+    }
+
+    private final Shape shape;
+    private final int types;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong savedCount = new AtomicLong();
+    private final AtomicLongArray recentIds = new AtomicLongArray(RECENT_IDS);
+    private final AtomicLongArray chainEnds = new AtomicLongArray(CHAINS);
+
+    /**
+     * Constructor for the class
+     *
+     * @param shape the shape of the transaction trees
+     * @param types the number of distinct types the transactions are spread over
+     */
+    public Workload(Shape shape, int types) {
+        this.shape = shape;
+        this.types = types;
+    }
+
+    /**
+     * Generates the next transaction, attached to a saved parent if the shape gives it one
+     *
+     * @return the new transaction, not saved yet
+     */
+    public NewTransaction next() {
+        long id = nextId.getAndIncrement();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String type = "type" + random.nextInt(types);
+        String amount = random.nextInt(1, 100_000) + "." + random.nextInt(10) + random.nextInt(10);
+        Long parentId = null;
+        int chain = -1;
+        switch (shape) {
+            case WIDE:
+                parentId = id < ROOTS ? null : (long) random.nextInt(ROOTS);
+                break;
+            case DEEP:
+                if (id >= CHAINS) {
+                    chain = random.nextInt(CHAINS);
+                    parentId = chainEnds.get(chain);
+                }
+                break;
+            case MIXED:
+                parentId = savedCount.get() == 0 || random.nextDouble() < MIXED_ROOT_PROBABILITY ? null : randomSavedId();
+                break;
+            default:
+                break;
+        }
+        return new NewTransaction(id, type, amount, parentId, chain);
+    }
+
+    /**
+     * Records a transaction as saved, making it available as a parent and as a target of the reads
+     *
+     * @param transaction the saved transaction
+     */
+    public void saved(NewTransaction transaction) {
+        long position = savedCount.getAndIncrement();
+        recentIds.set((int) (position % RECENT_IDS), transaction.id);
+        if (transaction.chain >= 0) {
+            // a concurrent save may have extended the chain meanwhile, this transaction then starts a branch
+            chainEnds.compareAndSet(transaction.chain, transaction.parentId, transaction.id);
+        } else if (shape == Shape.DEEP && transaction.id < CHAINS) {
+            chainEnds.set((int) transaction.id, transaction.id);
+        }
+    }
+
+    /**
+     * Returns a recently saved transaction
+     *
+     * @return the id of the transaction
+     */
+    public long randomSavedId() {
+        long saved = Math.min(savedCount.get(), RECENT_IDS);
+        return saved == 0 ? 0 : recentIds.get(ThreadLocalRandom.current().nextInt((int) saved));
+    }
+
+    /**
+     * Returns one of the types of the transactions
+     *
+     * @return the type
+     */
+    public String randomType() {
+        return "type" + ThreadLocalRandom.current().nextInt(types);
+    }
+
+    /**
+     * Getter for the savedCount attribute
+     *
+     * @return the number of transactions saved so far
+     */
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    /**
+     * A generated transaction
+     */
+    public static final class NewTransaction {
+        private final long id;
+        private final String type;
+        private final String amount;
+        private final Long parentId;
+        private final int chain;
+
+        private NewTransaction(long id, String type, String amount, Long parentId, int chain) {
+            this.id = id;
+            this.type = type;
+            this.amount = amount;
+            this.parentId = parentId;
+            this.chain = chain;
+        }
+
+        /**
+         * Getter for the id attribute
+         *
+         * @return the id of the transaction
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Returns the body of a PUT /transaction/{id} request saving the transaction
+         *
+         * @return the JSON body
+         */
+        public String toJson() {
+            return "{\"amount\":" + amount + ",\"type\":\"" + type + "\"" + (parentId != null ? ",\"parent_id\":" + parentId : "") + "}";
+        }
+
+        /**
+         * Returns the record saving the transaction in a PUT /transactions batch
+         *
+         * @return the JSON record
+         */
+        public String toBatchJson() {
+            return "{\"id\":" + id + "," + toJson().substring(1);
+        }
+    }
+}
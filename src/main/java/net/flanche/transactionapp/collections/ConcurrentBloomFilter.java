@@ -0,0 +1,123 @@
+package net.flanche.transactionapp.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe Bloom filter over long keys: a set that may answer a key is present when it is not, but never that
+ * a key is absent when it was added. The bit array and the number of hash functions are sized from the expected
+ * number of keys and the accepted false positive probability, which is only kept while the filter holds no more
+ * keys than expected. Keys are hashed once with a 64 bit mixer, the probed bits being derived from the two halves
+ * of the hash, and bits are set with compare-and-set so adding and probing never lock.
+ * Keys cannot be removed, so the filter is only meant for sets that only grow.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class ConcurrentBloomFilter {
+    private static final double LN2 = Math.log(2);
+    private static final long MAX_BITS = (long) Integer.MAX_VALUE * Long.SIZE;
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Constructor for the class
+     *
+     * @param expectedKeys             the number of keys the filter is sized for, 0 disables the filter which then
+     *                                 answers every key may be present
+     * @param falsePositiveProbability the probability that an absent key is reported present once the expected keys
+     *                                 are added, between 0 and 1 exclusive
+     */
+    public ConcurrentBloomFilter(long expectedKeys, double falsePositiveProbability) {
+        if (expectedKeys < 0) {
+            throw new IllegalArgumentException("Negative number of expected keys " + expectedKeys);
+        }
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1)) {
+            throw new IllegalArgumentException("False positive probability " + falsePositiveProbability + " not between 0 and 1");
+        }
+        if (expectedKeys == 0) {
+            this.words = new AtomicLongArray(0);
+            this.bitCount = 0;
+            this.hashCount = 0;
+            return;
+        }
+        long bits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveProbability) / (LN2 * LN2));
+        bits = Math.min(MAX_BITS, Math.max(Long.SIZE, bits));
+        this.words = new AtomicLongArray((int) ((bits + Long.SIZE - 1) / Long.SIZE));
+        this.bitCount = (long) words.length() * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * LN2));
+    }
+
+    /**
+     * Adds a key to the filter
+     *
+     * @param key the key to add
+     */
+    public void add(long key) {
+        if (bitCount == 0) {
+            return;
+        }
+        long hash = mix(key);
+        long first = hash >>> 32;
+        long second = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (first + i * second) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long value = words.get(word);
+            while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask)) {
+                value = words.get(word);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a key may have been added. A false answer is exact, a true one is wrong with the false positive
+     * probability of the filter.
+     *
+     * @param key the key to look for
+     * @return false if the key was never added, true if it may have been
+     */
+    public boolean mightContain(long key) {
+        if (bitCount == 0) {
+            return true;
+        }
+        long hash = mix(key);
+        long first = hash >>> 32;
+        long second = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (first + i * second) % bitCount;
+            if ((words.get((int) (bit >>> 6)) & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Getter for the bitCount attribute
+     *
+     * @return the number of bits of the filter, 0 if it is disabled
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Getter for the hashCount attribute
+     *
+     * @return the number of bits probed for every key
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * The finalizer of SplitMix64, spreading close keys such as consecutive ids over the whole hash
+     */
+    private static long mix(long key) {
+        long hash = (key ^ key >>> 30) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ hash >>> 27) * 0x94D049BB133111EBL;
+        return hash ^ hash >>> 31;
+    }
+}
@@ -0,0 +1,113 @@
+package net.flanche.transactionapp.collections;
+
+import net.flanche.transactionapp.concurrent.StripedLock;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A thread safe hash map with primitive long keys. The keys are split over a fixed number of segments,
+ * each one a LongObjectHashMap guarded by its own lock, so writes to different segments run in parallel
+ * and putIfAbsent is a single atomic step. Null values are not allowed and entries are never removed.
+ *
+ * @param <V> the type of the values
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class ConcurrentLongObjectMap<V> {
+    private final LongObjectHashMap<V>[] segments;
+    private final StampedLock[] locks;
+
+    /**
+     * Constructor for the class
+     *
+     * @param concurrencyLevel the minimum number of segments, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectMap(int concurrencyLevel) {
+        int size = Math.max(1, Integer.highestOneBit(Math.max(1, concurrencyLevel) - 1) << 1);
+        segments = new LongObjectHashMap[size];
+        locks = new StampedLock[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new LongObjectHashMap<>();
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Returns the value mapped to the given key
+     *
+     * @param key the key to look for
+     * @return the value or null if the key is not in the map
+     */
+    public V get(long key) {
+        int segment = StripedLock.stripe(key, segments.length);
+        StampedLock lock = locks[segment];
+        long stamp = lock.readLock();
+        try {
+            return segments[segment].get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Checks if the given key is in the map
+     *
+     * @param key the key to look for
+     * @return true if the key is mapped to a value
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Atomically maps the key to the given value if the key is not already in the map
+     *
+     * @param key   the key
+     * @param value the value, must not be null
+     * @return the existing value, or null if the given value was inserted
+     */
+    public V putIfAbsent(long key, V value) {
+        int segment = StripedLock.stripe(key, segments.length);
+        StampedLock lock = locks[segment];
+        long stamp = lock.writeLock();
+        try {
+            return segments[segment].putIfAbsent(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Calls the consumer for every entry of the map, locking one segment at a time
+     *
+     * @param consumer the consumer of the entries
+     */
+    public void forEach(LongObjectHashMap.LongObjectConsumer<? super V> consumer) {
+        for (int i = 0; i < segments.length; i++) {
+            long stamp = locks[i].readLock();
+            try {
+                segments[i].forEach(consumer);
+            } finally {
+                locks[i].unlockRead(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries, the result is only exact when there are no concurrent writes
+     *
+     * @return the number of entries in the map
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            long stamp = locks[i].readLock();
+            try {
+                size += segments[i].size();
+            } finally {
+                locks[i].unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+}
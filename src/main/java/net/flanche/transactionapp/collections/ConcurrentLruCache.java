@@ -0,0 +1,134 @@
+package net.flanche.transactionapp.collections;
+
+import net.flanche.transactionapp.concurrent.StripedLock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongFunction;
+
+/**
+ * A thread safe read-through cache with long keys and a bounded size. The keys are split over a fixed number of
+ * segments, each one an access ordered LinkedHashMap guarded by its own lock, and a segment evicts its least
+ * recently used entry once it is full. The eviction is therefore LRU per segment, which is close to a global LRU
+ * while letting lookups of different segments run in parallel.
+ * Entries are never invalidated, so the cache is only meant for values that do not change once loaded.
+ *
+ * @param <V> the type of the values
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class ConcurrentLruCache<V> {
+    private final Segment<V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor for the class
+     *
+     * @param maximumSize      the maximum number of entries, 0 disables the cache
+     * @param concurrencyLevel the minimum number of segments, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(int maximumSize, int concurrencyLevel) {
+        int size = Math.max(1, Integer.highestOneBit(Math.max(1, concurrencyLevel) - 1) << 1);
+        int segmentSize = maximumSize <= 0 ? 0 : Math.max(1, maximumSize / size);
+        segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment<>(segmentSize, evictions);
+        }
+    }
+
+    /**
+     * Returns the value cached for the key, loading and caching it on a miss. The loader is called without holding
+     * any lock, so concurrent misses of the same key may both load it, which is harmless for values that never change.
+     *
+     * @param key    the key to look for
+     * @param loader loads the value of a key, may return null in which case nothing is cached
+     * @return the value of the key or null if the loader did not find it
+     */
+    public V get(long key, LongFunction<V> loader) {
+        Segment<V> segment = segments[StripedLock.stripe(key, segments.length)];
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        value = loader.apply(key);
+        if (value != null && segment.maximumSize > 0) {
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of entries, the result is only exact when there are no concurrent writes
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Getter for the hits attribute
+     *
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Getter for the misses attribute
+     *
+     * @return the number of lookups that had to call the loader
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Getter for the evictions attribute
+     *
+     * @return the number of entries evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * One segment of the cache, a LinkedHashMap in access order that drops its eldest entry when full
+     */
+    private static class Segment<V> extends LinkedHashMap<Long, V> {
+        private final int maximumSize;
+        private final LongAdder evictions;
+
+        private Segment(int maximumSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+            if (size() > maximumSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
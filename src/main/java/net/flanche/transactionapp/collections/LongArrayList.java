@@ -0,0 +1,166 @@
+package net.flanche.transactionapp.collections;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A growable list of primitive longs, so no Long object is allocated per element.
+ * The class is not thread safe.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class LongArrayList {
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private long[] elements;
+    private int size;
+
+    /**
+     * Constructor for the class
+     */
+    public LongArrayList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for the class
+     *
+     * @param capacity the initial capacity of the list
+     */
+    public LongArrayList(int capacity) {
+        this.elements = new long[Math.max(1, capacity)];
+    }
+
+    /**
+     * Appends an element to the end of the list
+     *
+     * @param element the element to append
+     */
+    public void add(long element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        elements[size++] = element;
+    }
+
+    /**
+     * Inserts an element keeping the list in ascending order. Appending an element not smaller than the last one
+     * is O(1), which is the common case for increasing ids, otherwise the following elements are shifted.
+     * Only valid on a list whose elements were all added with this method.
+     *
+     * @param element the element to insert
+     */
+    public void addSorted(long element) {
+        if (size == 0 || elements[size - 1] <= element) {
+            add(element);
+            return;
+        }
+        int index = lowerBound(element);
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size << 1);
+        }
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = element;
+        size++;
+    }
+
+    /**
+     * Finds the position of the first element greater than or equal to the given key with a binary search.
+     * Only valid on a list kept in ascending order, see addSorted
+     *
+     * @param key the key to search for
+     * @return the position of the first element not smaller than the key, or the size of the list if there is none
+     */
+    public int lowerBound(long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (elements[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the element at the given position
+     *
+     * @param index the position of the element
+     * @return the element
+     */
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[index];
+    }
+
+    /**
+     * Removes and returns the last element of the list, allowing the list to be used as a stack
+     *
+     * @return the last element
+     */
+    public long removeLast() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("The list is empty");
+        }
+        return elements[--size];
+    }
+
+    /**
+     * Getter for the size attribute
+     *
+     * @return the number of elements in the list
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the list has no elements
+     *
+     * @return true if the list is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Calls the consumer for every element of the list, in order
+     *
+     * @param consumer the consumer of the elements
+     */
+    public void forEach(LongConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(elements[i]);
+        }
+    }
+
+    /**
+     * Copies consecutive elements of the list into the given array
+     *
+     * @param from        the position of the first element to copy
+     * @param destination the array to copy into, at most its length elements are copied
+     * @return the number of copied elements, 0 if from is past the end of the list
+     */
+    public int copyTo(int from, long[] destination) {
+        int count = Math.min(destination.length, size - from);
+        if (count <= 0) {
+            return 0;
+        }
+        System.arraycopy(elements, from, destination, 0, count);
+        return count;
+    }
+
+    /**
+     * Returns a copy of the elements of the list
+     *
+     * @return an array holding the elements in order
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
@@ -0,0 +1,223 @@
+package net.flanche.transactionapp.collections;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * A hash map with primitive long keys, so no Long object is allocated per entry.
+ * It uses open addressing with linear probing over two parallel arrays. Null values are not allowed,
+ * a null value marks an empty slot. Entries are never removed as the application never deletes data.
+ * The class is not thread safe.
+ *
+ * @param <V> the type of the values
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class LongObjectHashMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * Constructor for the class
+     */
+    public LongObjectHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for the class
+     *
+     * @param expectedSize the number of entries the map should hold without resizing
+     */
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Returns the value mapped to the given key
+     *
+     * @param key the key to look for
+     * @return the value or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        Object value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the given key is in the map
+     *
+     * @param key the key to look for
+     * @return true if the key is mapped to a value
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps the key to the given value, replacing any previous value
+     *
+     * @param key   the key
+     * @param value the value, must not be null
+     * @return the previous value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int index = findSlot(key);
+        Object previous = values[index];
+        values[index] = value;
+        if (previous == null) {
+            keys[index] = key;
+            onInsert();
+        }
+        return (V) previous;
+    }
+
+    /**
+     * Maps the key to the given value only if the key is not already in the map
+     *
+     * @param key   the key
+     * @param value the value, must not be null
+     * @return the existing value, or null if the given value was inserted
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int index = findSlot(key);
+        Object existing = values[index];
+        if (existing == null) {
+            keys[index] = key;
+            values[index] = value;
+            onInsert();
+        }
+        return (V) existing;
+    }
+
+    /**
+     * Returns the value mapped to the key, computing and inserting it first if the key is not in the map
+     *
+     * @param key             the key
+     * @param mappingFunction the function computing the value for a missing key
+     * @return the existing or the computed value
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<V> mappingFunction) {
+        int index = findSlot(key);
+        Object existing = values[index];
+        if (existing != null) {
+            return (V) existing;
+        }
+        V value = mappingFunction.apply(key);
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Calls the consumer for every entry of the map, in no particular order
+     *
+     * @param consumer the consumer of the entries
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(LongObjectConsumer<? super V> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Getter for the size attribute
+     *
+     * @return the number of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the entries of the map
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the slot holding the key, or the empty slot where the key should be inserted
+     */
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (values[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void onInsert() {
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int index = hash(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Spreads the bits of the key as sequential ids are the common case and would otherwise cluster
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Consumer of a long key and an object value, used to iterate without boxing the keys
+     *
+     * @param <V> the type of the values
+     */
+    @FunctionalInterface
+    public interface LongObjectConsumer<V> {
+        void accept(long key, V value);
+    }
+}
@@ -0,0 +1,54 @@
+package net.flanche.transactionapp.collections;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An iterator over primitive longs that fetches them one page at a time, so only a single page is held in memory
+ * no matter how many elements are iterated. Subclasses keep track of their own position and return the next page.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public abstract class PagedLongIterator implements PrimitiveIterator.OfLong {
+    private long[] page = new long[0];
+    private int position;
+    private boolean exhausted;
+
+    /**
+     * Fetches the page following the last one returned
+     *
+     * @return the next elements, an empty array once there are no more elements
+     */
+    protected abstract long[] nextPage();
+
+    @Override
+    public boolean hasNext() {
+        while (position == page.length && !exhausted) {
+            page = nextPage();
+            position = 0;
+            exhausted = page.length == 0;
+        }
+        return position < page.length;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page[position++];
+    }
+
+    /**
+     * Returns a sequential stream over the remaining elements of this iterator
+     *
+     * @return a lazy stream, pages are only fetched as the stream is consumed
+     */
+    public LongStream stream() {
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
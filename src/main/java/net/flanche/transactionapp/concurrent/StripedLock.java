@@ -0,0 +1,71 @@
+package net.flanche.transactionapp.concurrent;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks selected by hashing a long key. Operations on the same key always use the
+ * same lock and are serialized, while operations on different keys mostly use different locks and run in parallel.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class StripedLock {
+    private final Lock[] locks;
+
+    /**
+     * Constructor for the class
+     *
+     * @param stripes the minimum number of locks, rounded up to a power of two
+     */
+    public StripedLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes) - 1) << 1;
+        locks = new Lock[Math.max(1, size)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding the given key
+     *
+     * @param key the key to lock on
+     * @return the lock of the key
+     */
+    public Lock get(long key) {
+        return locks[stripe(key, locks.length)];
+    }
+
+    /**
+     * Returns the distinct locks guarding the given keys, always in the same order so that threads
+     * locking several keys at once cannot deadlock each other
+     *
+     * @param keys the keys to lock on
+     * @return the locks of the keys, to be acquired in order
+     */
+    public List<Lock> getAll(long[] keys) {
+        BitSet stripes = new BitSet(locks.length);
+        for (long key : keys) {
+            stripes.set(stripe(key, locks.length));
+        }
+        List<Lock> result = new ArrayList<>(stripes.cardinality());
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+            result.add(locks[stripe]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stripe of a key among a power of two number of stripes
+     *
+     * @param key     the key
+     * @param stripes the number of stripes, must be a power of two
+     * @return the index of the stripe
+     */
+    public static int stripe(long key, int stripes) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (stripes - 1);
+    }
+}
@@ -0,0 +1,284 @@
+package net.flanche.transactionapp.metrics;
+
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.service.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+/**
+ * Decorates a TransactionService to measure every call of each method: its latency in nanoseconds, published as
+ * transaction.service.&lt;method&gt;.nanos, the number of repository queries it ran, published as
+ * transaction.service.&lt;method&gt;.queries, and the number of calls that failed with a service exception, published as
+ * transaction.service.&lt;method&gt;.errors. The metrics are looked up once on construction, so a call only pays for
+ * two clock readings and a few LongAdder increments.
+ * The latency of streamTransactionIdsOfType covers creating the stream, not consuming it.
+ * Closing the decorator closes the decorated service, if it can be closed.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class MeteredTransactionService implements TransactionService, AutoCloseable {
+    private static final String PREFIX = "transaction.service.";
+
+    private final TransactionService delegate;
+    private final MethodMetrics getTransactionById;
+    private final MethodMetrics getTransactionsByIds;
+    private final MethodMetrics getTransactionsOfType;
+    private final MethodMetrics streamTransactionIdsOfType;
+    private final MethodMetrics getTransactionIdsOfType;
+    private final MethodMetrics getTypeStats;
+    private final MethodMetrics getAllTypeStats;
+    private final MethodMetrics getTotalAmountOfChildrenTransactions;
+    private final MethodMetrics checkTotalAmountOfChildrenTransactions;
+    private final MethodMetrics getTransactionTree;
+    private final MethodMetrics saveTransaction;
+    private final MethodMetrics saveTransactions;
+    private final LongAdder[] batchStatuses = new LongAdder[SaveStatus.values().length];
+
+    /**
+     * Constructor for the class
+     *
+     * @param delegate the service doing the work
+     * @param metrics  the registry to record the measurements in
+     */
+    public MeteredTransactionService(TransactionService delegate, TransactionMetrics metrics) {
+        this.delegate = delegate;
+        this.getTransactionById = new MethodMetrics(metrics, "getTransactionById");
+        this.getTransactionsByIds = new MethodMetrics(metrics, "getTransactionsByIds");
+        this.getTransactionsOfType = new MethodMetrics(metrics, "getTransactionsOfType");
+        this.streamTransactionIdsOfType = new MethodMetrics(metrics, "streamTransactionIdsOfType");
+        this.getTransactionIdsOfType = new MethodMetrics(metrics, "getTransactionIdsOfType");
+        this.getTypeStats = new MethodMetrics(metrics, "getTypeStats");
+        this.getAllTypeStats = new MethodMetrics(metrics, "getAllTypeStats");
+        this.getTotalAmountOfChildrenTransactions = new MethodMetrics(metrics, "getTotalAmountOfChildrenTransactions");
+        this.checkTotalAmountOfChildrenTransactions = new MethodMetrics(metrics, "checkTotalAmountOfChildrenTransactions");
+        this.getTransactionTree = new MethodMetrics(metrics, "getTransactionTree");
+        this.saveTransaction = new MethodMetrics(metrics, "saveTransaction");
+        this.saveTransactions = new MethodMetrics(metrics, "saveTransactions");
+        for (SaveStatus status : SaveStatus.values()) {
+            batchStatuses[status.ordinal()] = metrics.counter(PREFIX + "saveTransactions." + status.name().toLowerCase());
+        }
+    }
+
+    /**
+     * Getter for the delegate attribute
+     *
+     * @return the decorated service
+     */
+    public TransactionService getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Closes the decorated service if it can be closed, Spring calling it on shutdown in place of the destroy method
+     * of the decorated bean
+     */
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    @Override
+    public Optional<Transaction> getTransactionById(long id) {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTransactionById(id);
+        } finally {
+            getTransactionById.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public List<Transaction> getTransactionsByIds(List<Long> ids) {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTransactionsByIds(ids);
+        } finally {
+            getTransactionsByIds.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public List<Transaction> getTransactionsOfType(String type) throws InvalidTransactionType {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTransactionsOfType(type);
+        } catch (InvalidTransactionType e) {
+            getTransactionsOfType.errors.increment();
+            throw e;
+        } finally {
+            getTransactionsOfType.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public LongStream streamTransactionIdsOfType(String type) throws InvalidTransactionType {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.streamTransactionIdsOfType(type);
+        } catch (InvalidTransactionType e) {
+            streamTransactionIdsOfType.errors.increment();
+            throw e;
+        } finally {
+            streamTransactionIdsOfType.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public TransactionIdPage getTransactionIdsOfType(String type, TransactionFilter filter, OptionalLong afterId, int limit) throws InvalidTransactionType {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTransactionIdsOfType(type, filter, afterId, limit);
+        } catch (InvalidTransactionType e) {
+            getTransactionIdsOfType.errors.increment();
+            throw e;
+        } finally {
+            getTransactionIdsOfType.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public Optional<TransactionTypeStats> getTypeStats(String type) throws InvalidTransactionType {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTypeStats(type);
+        } catch (InvalidTransactionType e) {
+            getTypeStats.errors.increment();
+            throw e;
+        } finally {
+            getTypeStats.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public List<TransactionTypeStats> getAllTypeStats() {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getAllTypeStats();
+        } finally {
+            getAllTypeStats.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public BigDecimal getTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTotalAmountOfChildrenTransactions(transactionId);
+        } catch (InvalidTransactionId e) {
+            getTotalAmountOfChildrenTransactions.errors.increment();
+            throw e;
+        } finally {
+            getTotalAmountOfChildrenTransactions.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public boolean checkTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.checkTotalAmountOfChildrenTransactions(transactionId);
+        } catch (InvalidTransactionId e) {
+            checkTotalAmountOfChildrenTransactions.errors.increment();
+            throw e;
+        } finally {
+            checkTotalAmountOfChildrenTransactions.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public List<Transaction> getTransactionTree(long transactionId, int maxDepth) throws InvalidTransactionId {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.getTransactionTree(transactionId, maxDepth);
+        } catch (InvalidTransactionId e) {
+            getTransactionTree.errors.increment();
+            throw e;
+        } finally {
+            getTransactionTree.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.saveTransaction(transactionId, type, amount);
+        } catch (DuplicateTransactionException | InvalidTransactionType | InvalidTransactionAmount e) {
+            saveTransaction.errors.increment();
+            throw e;
+        } finally {
+            saveTransaction.record(startTime, startQueries);
+        }
+    }
+
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            return delegate.saveTransaction(transactionId, type, amount, parentTransactionId);
+        } catch (InvalidParentTransaction | DuplicateTransactionException | InvalidTransactionType | InvalidTransactionAmount e) {
+            saveTransaction.errors.increment();
+            throw e;
+        } finally {
+            saveTransaction.record(startTime, startQueries);
+        }
+    }
+
+    /**
+     * Delegates the whole batch so the backend keeps its own batching, and counts the outcome of every transaction
+     * as transaction.service.saveTransactions.&lt;status&gt;
+     */
+    @Override
+    public List<SaveStatus> saveTransactions(List<TransactionRecord> transactions) {
+        long startTime = System.nanoTime();
+        long startQueries = QueryCounter.get();
+        try {
+            List<SaveStatus> result = delegate.saveTransactions(transactions);
+            for (SaveStatus status : result) {
+                batchStatuses[status.ordinal()].increment();
+            }
+            return result;
+        } finally {
+            saveTransactions.record(startTime, startQueries);
+        }
+    }
+
+    /**
+     * The metrics of one method of the service
+     */
+    private static class MethodMetrics {
+        private final Histogram latency;
+        private final Histogram queries;
+        private final LongAdder errors;
+
+        private MethodMetrics(TransactionMetrics metrics, String method) {
+            this.latency = metrics.histogram(PREFIX + method + ".nanos");
+            this.queries = metrics.histogram(PREFIX + method + ".queries");
+            this.errors = metrics.counter(PREFIX + method + ".errors");
+        }
+
+        private void record(long startTime, long startQueries) {
+            latency.record(System.nanoTime() - startTime);
+            queries.record(QueryCounter.get() - startQueries);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.flanche.transactionapp.metrics;
+
+import net.flanche.transactionapp.transaction.service.TransactionService;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Wires the measurements of the service and of the rest API into the application. Every TransactionService bean is
+ * wrapped in a MeteredTransactionService, whichever store is selected, and every controller request goes through the
+ * MetricsHandlerInterceptor. Only the TransactionService interface is used here, the stores publish their own
+ * measurements, such as the hibernate cache statistics of the jpa store, into the TransactionMetrics registry.
+ * Everything recorded is published on the actuator /metrics endpoint.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+    @Autowired
+    private TransactionMetrics transactionMetrics;
+
+    /**
+     * The post processor is static so it is created before the other beans, and it only resolves the metrics
+     * registry once the first TransactionService is created
+     */
+    @Bean
+    public static BeanPostProcessor meteredTransactionServicePostProcessor(ObjectFactory<TransactionMetrics> transactionMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                return bean;
+            }
+
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof TransactionService && !(bean instanceof MeteredTransactionService)) {
+                    return new MeteredTransactionService((TransactionService) bean, transactionMetrics.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new MetricsHandlerInterceptor(transactionMetrics)).addPathPatterns("/transactionservice/**");
+    }
+}
@@ -0,0 +1,89 @@
+package net.flanche.transactionapp.metrics;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the requests handled by the controllers: the latency of each handler method in nanoseconds, published as
+ * transaction.http.&lt;handler&gt;.nanos, the number of repository queries run on the request thread, published as
+ * transaction.http.&lt;handler&gt;.queries, and the number of responses with an error status, published as
+ * transaction.http.status.&lt;code&gt;. A request dispatched again after asynchronous processing keeps the start
+ * of its first dispatch. The queries of a handler running on the query executor are not run on the request thread,
+ * they are counted by the service metrics instead.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class MetricsHandlerInterceptor extends HandlerInterceptorAdapter {
+    private static final String START_TIME = MetricsHandlerInterceptor.class.getName() + ".startTime";
+    private static final String START_QUERIES = MetricsHandlerInterceptor.class.getName() + ".startQueries";
+    private static final int FIRST_ERROR_STATUS = 400;
+    private static final int LAST_STATUS = 599;
+
+    private final TransactionMetrics metrics;
+    private final LongAdder[] errorStatuses = new LongAdder[LAST_STATUS - FIRST_ERROR_STATUS + 1];
+    private final Map<Method, HandlerMetrics> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for the class
+     *
+     * @param metrics the registry to record the measurements in
+     */
+    public MetricsHandlerInterceptor(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(START_TIME) == null) {
+            request.setAttribute(START_TIME, System.nanoTime());
+            request.setAttribute(START_QUERIES, QueryCounter.get());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Long startTime = (Long) request.getAttribute(START_TIME);
+        if (startTime == null || !(handler instanceof HandlerMethod)) {
+            return;
+        }
+        HandlerMetrics handlerMetrics = handlers.computeIfAbsent(((HandlerMethod) handler).getMethod(), HandlerMetrics::new);
+        handlerMetrics.latency.record(System.nanoTime() - startTime);
+        handlerMetrics.queries.record(QueryCounter.get() - (Long) request.getAttribute(START_QUERIES));
+        int status = response.getStatus();
+        if (status >= FIRST_ERROR_STATUS && status <= LAST_STATUS) {
+            errorStatus(status).increment();
+        }
+    }
+
+    private LongAdder errorStatus(int status) {
+        int index = status - FIRST_ERROR_STATUS;
+        LongAdder counter = errorStatuses[index];
+        if (counter == null) {
+            counter = metrics.counter("transaction.http.status." + status);
+            errorStatuses[index] = counter;
+        }
+        return counter;
+    }
+
+    /**
+     * The metrics of one handler method
+     */
+    private class HandlerMetrics {
+        private final Histogram latency;
+        private final Histogram queries;
+
+        private HandlerMetrics(Method method) {
+            String name = "transaction.http." + method.getName();
+            this.latency = metrics.histogram(name + ".nanos");
+            this.queries = metrics.histogram(name + ".queries");
+        }
+    }
+}
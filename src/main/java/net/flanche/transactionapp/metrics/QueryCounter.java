@@ -0,0 +1,32 @@
+package net.flanche.transactionapp.metrics;
+
+/**
+ * Counts the SQL statements prepared on the current thread, so the number of repository queries behind a service
+ * call or a request can be measured as the difference between two readings. The store reports its statements
+ * itself, the jpa store through a hibernate statement inspector, so the counts are kept statically and stay at zero
+ * with a store that runs no queries.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public final class QueryCounter {
+    private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    private QueryCounter() {
+    }
+
+    /**
+     * Counts a statement prepared on the current thread
+     */
+    public static void increment() {
+        COUNT.get()[0]++;
+    }
+
+    /**
+     * Returns the number of statements prepared on the current thread since it started
+     *
+     * @return the number of statements
+     */
+    public static long get() {
+        return COUNT.get()[0];
+    }
+}
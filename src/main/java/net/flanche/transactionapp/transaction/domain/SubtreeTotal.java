@@ -0,0 +1,53 @@
+package net.flanche.transactionapp.transaction.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Domain class holding the materialized sum of a transaction and all of its transitive children.
+ * It is kept apart from the Transaction entity so that transactions stay immutable once saved.
+ * The sum is counted in minor units, at the scale of the amounts of the store
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@Entity
+public class SubtreeTotal {
+    @Id
+    private long transactionId;
+    private long amount;
+
+    /**
+     * Constructor for the class
+     *
+     * @param transactionId the id of the transaction at the root of the subtree
+     * @param amount        the sum of the amounts in the subtree, in minor units
+     */
+    public SubtreeTotal(long transactionId, long amount) {
+        this.transactionId = transactionId;
+        this.amount = amount;
+    }
+
+    /**
+     * Constructor used by Hibernate
+     */
+    protected SubtreeTotal() {
+    }
+
+    /**
+     * Getter for the transaction id attribute
+     *
+     * @return the id of the transaction at the root of the subtree
+     */
+    public long getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Getter for the amount attribute
+     *
+     * @return the sum of the amounts in the subtree, in minor units
+     */
+    public long getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,35 @@
+package net.flanche.transactionapp.transaction.domain;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+
+/**
+ * A repository interface for the materialized subtree totals. The interface is automatically
+ * implemented by the Spring Data JPA framework.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public interface SubtreeTotalRepository extends CrudRepository<SubtreeTotal, Long> {
+    /**
+     * Adds the given amount to the totals of all the given transactions in a single update statement.
+     * The increment is done by the database so concurrent inserts under the same ancestor do not lose updates.
+     * Only the totals within the given range are updated, so passing the range in which adding the amount cannot
+     * overflow a long makes the statement skip the totals that would, and the caller rolls back when fewer totals
+     * than requested were updated.
+     *
+     * @param transactionIds the ids of the transactions whose totals should be incremented
+     * @param amount         the amount to add to each total, in minor units
+     * @param minTotal       the smallest total to increment
+     * @param maxTotal       the largest total to increment
+     * @return the number of updated totals
+     */
+    @Modifying
+    @Query("update SubtreeTotal s set s.amount = s.amount + :amount " +
+            "where s.transactionId in :transactionIds and s.amount between :minTotal and :maxTotal")
+    int addToAmount(@Param("transactionIds") Collection<Long> transactionIds, @Param("amount") long amount,
+                    @Param("minTotal") long minTotal, @Param("maxTotal") long maxTotal);
+}
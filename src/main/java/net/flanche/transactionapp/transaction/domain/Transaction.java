@@ -1,53 +1,111 @@
 package net.flanche.transactionapp.transaction.domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.math.BigDecimal;
 import java.util.Optional;
 
 /**
- * Domain class to represent a transaction
+ * Domain class to represent a transaction.
+ * Besides the link to its parent, a transaction stores its depth and its materialized path, the ids of all its
+ * ancestors and its own from the root down, written as /root-id/.../id/. The path of a transaction is a prefix of
+ * the paths of all its descendants, so the whole subtree is a single range scan on the path index. The path grows
+ * with the depth, by up to 20 characters per level, so its column takes the largest VARCHAR length instead of the
+ * default of 255, which a chain of a hundred levels already exceeds. Unlike a CLOB, such a column can still be indexed.
+ * <p>
+ * The parent is loaded lazily, so loading a transaction costs a single row no matter how deep it is. Reads that only
+ * need the id of the parent use getParentId, which is mapped on the foreign key column itself. The id is mapped with
+ * property access so that asking a parent proxy for its id does not load it either.
+ * </p>
+ * <p>
+ * The amount is stored as a fixed point long counting minor units, together with its scale, so the stores sum
+ * amounts with long additions. It is only turned into a BigDecimal when asked for with getAmount.
+ * </p>
+ * <p>
+ * The type is stored as the int id of a TransactionType, so the type index holds ints instead of strings and
+ * filtering by type compares ints. The few types are loaded along with the transactions, at most once per session.
+ * </p>
+ * <p>
+ * Transactions never change once saved, so the entity is immutable and kept in the read-only second-level cache.
+ * Loading a transaction by id, or a lazy parent, is then served from memory once it was read or written.
+ * </p>
  *
  * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
  */
 @Entity
+@Immutable
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@Access(AccessType.FIELD)
+@Table(indexes = {
+        @Index(name = "transaction_type_id", columnList = "type_id, id"),
+        @Index(name = "transaction_path", columnList = "path")
+})
 public class Transaction {
-    @Id
+    @Transient
     private long id;
-    private BigDecimal amount;
-    private String type;
-    @ManyToOne(fetch = FetchType.EAGER)
+    private long amount;
+    private int amountScale;
+    @ManyToOne(fetch = FetchType.EAGER, optional = false)
+    @JoinColumn(name = "type_id")
+    private TransactionType type;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "parent_transaction_id")
     private Transaction parentTransaction;
+    @Column(name = "parent_transaction_id", insertable = false, updatable = false)
+    private Long parentId;
+    private int depth;
+    @Column(length = Integer.MAX_VALUE)
+    private String path;
 
 
     /**
      * Constructor for the class
      *
      * @param id                the id of the transaction
-     * @param amount            the amount used in this transaction
+     * @param amount            the amount used in this transaction, in minor units
+     * @param amountScale       the scale of the amount, the number of its minor units per unit being 10^scale
      * @param type              the type of the transaction
      * @param parentTransaction the parent of this transaction if any
      */
-    public Transaction(long id, BigDecimal amount, String type, Transaction parentTransaction) {
+    public Transaction(long id, long amount, int amountScale, TransactionType type, Transaction parentTransaction) {
         this.id = id;
         this.amount = amount;
+        this.amountScale = amountScale;
         this.type = type;
         this.parentTransaction = parentTransaction;
+        this.parentId = parentTransaction.getId();
+        this.depth = parentTransaction.getDepth() + 1;
     }
 
 
     /**
      * Constructor for the class
      *
-     * @param id     the id of the transaction
-     * @param amount the amount used in this transaction
-     * @param type   the type of the transaction
+     * @param id          the id of the transaction
+     * @param amount      the amount used in this transaction, in minor units
+     * @param amountScale the scale of the amount, the number of its minor units per unit being 10^scale
+     * @param type        the type of the transaction
      */
-    public Transaction(long id, BigDecimal amount, String type) {
+    public Transaction(long id, long amount, int amountScale, TransactionType type) {
         this.id = id;
         this.amount = amount;
+        this.amountScale = amountScale;
         this.type = type;
     }
 
@@ -63,25 +121,63 @@ public class Transaction {
      *
      * @return the id of the transaction
      */
+    @Id
+    @Access(AccessType.PROPERTY)
     public long getId() {
         return id;
     }
 
+    /**
+     * Setter for the id attribute, used by Hibernate
+     *
+     * @param id the id of the transaction
+     */
+    protected void setId(long id) {
+        this.id = id;
+    }
+
     /**
      * Getter for the amount attribute
      *
      * @return the amount of the transaction
      */
     public BigDecimal getAmount() {
+        return BigDecimal.valueOf(amount, amountScale);
+    }
+
+    /**
+     * Getter for the amount attribute in minor units, without allocating
+     *
+     * @return the amount of the transaction counted in minor units
+     */
+    public long getMinorUnits() {
         return amount;
     }
 
+    /**
+     * Getter for the amountScale attribute
+     *
+     * @return the number of decimals of the amount
+     */
+    public int getAmountScale() {
+        return amountScale;
+    }
+
     /**
      * Getter for the type attribute
      *
      * @return the type of the transaction
      */
     public String getType() {
+        return type.getName();
+    }
+
+    /**
+     * Getter for the type attribute as an entry of the type dictionary
+     *
+     * @return the type of the transaction together with its id
+     */
+    public TransactionType getTransactionType() {
         return type;
     }
 
@@ -93,4 +189,43 @@ public class Transaction {
     public Optional<Transaction> getParentTransaction() {
         return Optional.ofNullable(parentTransaction);
     }
+
+    /**
+     * Getter for the parentId attribute. Unlike getParentTransaction this never loads the parent
+     *
+     * @return the id of the parent transaction wrapped in an Optional
+     */
+    public Optional<Long> getParentId() {
+        return Optional.ofNullable(parentId);
+    }
+
+    /**
+     * Getter for the depth attribute
+     *
+     * @return the number of ancestors of the transaction, 0 for a root transaction
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Getter for the materialized path. The path is built on first use from the path of the parent, so it is
+     * only materialized for transactions that are persisted or whose path is asked for
+     *
+     * @return the ids from the root down to this transaction, in the /root-id/.../id/ format
+     */
+    public String getPath() {
+        if (path == null) {
+            path = (parentTransaction == null ? "/" : parentTransaction.getPath()) + id + "/";
+        }
+        return path;
+    }
+
+    /**
+     * Materializes the path before the transaction is first written
+     */
+    @PrePersist
+    protected void materializePath() {
+        getPath();
+    }
 }
@@ -1,23 +1,111 @@
 package net.flanche.transactionapp.transaction.domain;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * A repository interface for all transactions. The interface is automatically
  * implemented by the Spring Data JPA framework.
+ * <p>
+ * The queries for the transactions of a type and for the children of a transaction are kept in the query cache.
+ * Hibernate drops every cached result of a query on the transaction table as soon as a transaction is inserted, so a
+ * new child or a new transaction of a type is never missed, and the cached ids are resolved through the
+ * second-level cache of the entity.
+ * </p>
  *
  * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
  */
 public interface TransactionRepository extends CrudRepository<Transaction, Long> {
     /**
-     * Returns all transaction by a given type
+     * Name of the query hint keeping the results of a query in the query cache
+     */
+    String CACHEABLE = "org.hibernate.cacheable";
+
+    /**
+     * Returns all transaction by a given type, comparing the int id of the type
      *
      * @param type the type to filter transactions for
      * @return all the transactions that fit the type criteria
      */
-    List<Transaction> findByType(String type);
+    @QueryHints(@QueryHint(name = CACHEABLE, value = "true"))
+    List<Transaction> findByType(TransactionType type);
+
+    /**
+     * Returns a page of the ids of the transactions of a given type, in ascending order. Pages are selected by
+     * the last id of the previous page rather than by an offset, so each page costs the same no matter how deep it is
+     *
+     * @param type     the type to filter transactions for, compared by its int id
+     * @param afterId  only ids greater than this one are returned
+     * @param pageable the size of the page, the page number should always be 0
+     * @return the ids of the transactions that fit the type criteria
+     */
+    @Query("select t.id from Transaction t where t.type = :type and t.id > :afterId order by t.id")
+    List<Long> findIdsByType(@Param("type") TransactionType type, @Param("afterId") long afterId, Pageable pageable);
+
+    /**
+     * Returns a page of the ids of all the transactions, in ascending order, the pages being selected by the last id
+     * of the previous page
+     *
+     * @param afterId  only ids greater than this one are returned
+     * @param pageable the size of the page, the page number should always be 0
+     * @return the ids of the transactions
+     */
+    @Query("select t.id from Transaction t where t.id > :afterId order by t.id")
+    List<Long> findIdsAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    /**
+     * Aggregates the amounts of the transactions of every type. This goes through all the transactions, so it is
+     * only meant to seed statistics that are maintained incrementally afterwards
+     *
+     * @return one row per type holding the type, the number of its transactions and the sum, minimum and maximum
+     * of their amounts in minor units
+     */
+    @Query("select t.type.name, count(t), sum(t.amount), min(t.amount), max(t.amount) from Transaction t group by t.type.name")
+    List<Object[]> aggregateAmountsByType();
+
+    /**
+     * Returns a transaction and its descendants down to a given depth, ordered by depth. The descendants are found
+     * by the materialized path of the transaction, which prefixes theirs, so this is a single range scan on the index
+     *
+     * @param pathPrefix the path of the transaction at the root of the subtree followed by %
+     * @param maxDepth   the maximum absolute depth of the returned transactions
+     * @return the transactions of the subtree, ordered by depth and id
+     */
+    @Query("select t from Transaction t where t.path like :pathPrefix and t.depth <= :maxDepth order by t.depth, t.id")
+    List<Transaction> findSubtree(@Param("pathPrefix") String pathPrefix, @Param("maxDepth") int maxDepth);
+
+    /**
+     * Sums the amounts of a transaction and all its descendants inside the database, by following the parent links
+     * with a recursive common table expression. Only standard SQL is used so it runs on any database supporting
+     * WITH RECURSIVE. The identifiers are quoted to match hibernate.globally_quoted_identifiers.
+     *
+     * @param transactionId the id of the transaction at the root of the subtree
+     * @return the sum of the subtree in minor units or null if the transaction does not exist, of whichever numeric
+     * type the database sums bigints to
+     */
+    @Query(value = "WITH RECURSIVE subtree(id, amount) AS (" +
+            "SELECT t.\"id\", t.\"amount\" FROM \"transaction\" t WHERE t.\"id\" = :transactionId " +
+            "UNION ALL " +
+            "SELECT c.\"id\", c.\"amount\" FROM \"transaction\" c INNER JOIN subtree s ON c.\"parent_transaction_id\" = s.id" +
+            ") SELECT SUM(amount) FROM subtree", nativeQuery = true)
+    Number sumSubtreeRecursively(@Param("transactionId") long transactionId);
+
+    /**
+     * Sums the amounts of all the transactions whose materialized path starts with the given prefix,
+     * a single range scan on the path index
+     *
+     * @param pathPrefix the path of the transaction at the root of the subtree followed by %
+     * @return the sum of the subtree in minor units or null if no transaction matches
+     */
+    @Query("select sum(t.amount) from Transaction t where t.path like :pathPrefix")
+    Long sumSubtreeByPath(@Param("pathPrefix") String pathPrefix);
 
     /**
      * Finds all transactions that have as parent the given transaction
@@ -25,5 +113,15 @@ public interface TransactionRepository extends CrudRepository<Transaction, Long>
      * @param parentTransaction the parent transaction to filter for
      * @return the children transactions of the given parent transactions
      */
+    @QueryHints(@QueryHint(name = CACHEABLE, value = "true"))
     List<Transaction> findByParentTransaction(Transaction parentTransaction);
+
+    /**
+     * Returns which of the given ids are already used by a transaction, without loading the transactions
+     *
+     * @param ids the ids to look for
+     * @return the subset of the ids that belong to existing transactions
+     */
+    @Query("select t.id from Transaction t where t.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,76 @@
+package net.flanche.transactionapp.transaction.domain;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * Domain class mapping a transaction type to a compact int id. There are only a few distinct types, so every
+ * transaction stores and indexes the id of its type instead of the type itself, and the stores share a single
+ * instance, and a single String, for all the transactions of a type. Types never change either, so they are kept
+ * in the read-only second-level cache and loading a transaction does not query its type.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@Entity
+@Immutable
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+public class TransactionType {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+    @Column(nullable = false, unique = true)
+    private String name;
+
+    /**
+     * Constructor for the class
+     *
+     * @param id   the id of the type
+     * @param name the type
+     */
+    public TransactionType(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Constructor for a type whose id is generated by the database when it is persisted
+     *
+     * @param name the type
+     */
+    public TransactionType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Constructor used by Hibernate
+     */
+    protected TransactionType() {
+    }
+
+    /**
+     * Getter for the id attribute
+     *
+     * @return the id of the type
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the name attribute
+     *
+     * @return the type
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,19 @@
+package net.flanche.transactionapp.transaction.domain;
+
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * A repository interface for the dictionary of transaction types. The interface is automatically
+ * implemented by the Spring Data JPA framework.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public interface TransactionTypeRepository extends CrudRepository<TransactionType, Integer> {
+    /**
+     * Returns the type with the given name, a lookup on the unique index of the name
+     *
+     * @param name the type
+     * @return the type or null if no transaction of the type was ever saved
+     */
+    TransactionType findByName(String name);
+}
@@ -0,0 +1,9 @@
+package net.flanche.transactionapp.transaction.service;
+
+/**
+ * Exception thrown for transaction amounts the store cannot represent
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class InvalidTransactionAmount extends Exception {
+}
@@ -0,0 +1,126 @@
+package net.flanche.transactionapp.transaction.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts amounts between the BigDecimal used by the API and the fixed point long used to store and sum them, which
+ * counts minor units of the amount: with a scale of 2 the amount 12.34 is held as 1234. Sums of minor units are
+ * plain long additions, so they neither allocate nor round. Amounts with more decimals than the scale, or too large
+ * to be counted in a long once scaled, are rejected instead of rounded.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class MinorUnits {
+    /**
+     * The largest supported scale, the one at which a long still holds every amount of up to one digit
+     */
+    public static final int MAX_SCALE = 18;
+
+    private final int scale;
+
+    /**
+     * Constructor for the class
+     *
+     * @param scale the number of decimals of the amounts, between 0 and MAX_SCALE
+     */
+    public MinorUnits(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("The amount scale must be between 0 and " + MAX_SCALE + ", got " + scale);
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * Getter for the scale attribute
+     *
+     * @return the number of decimals of the amounts
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Converts an amount to minor units
+     *
+     * @param amount the amount to convert
+     * @return the amount counted in minor units
+     * @throws InvalidTransactionAmount if the amount has more decimals than the scale or does not fit into a long
+     */
+    public long toMinorUnits(BigDecimal amount) throws InvalidTransactionAmount {
+        try {
+            return amount.movePointRight(scale).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new InvalidTransactionAmount();
+        }
+    }
+
+    /**
+     * Converts an unscaled amount and its scale to minor units. An amount already at the scale is returned as it is,
+     * without building a BigDecimal.
+     *
+     * @param unscaledAmount the unscaled amount to convert
+     * @param amountScale    the scale of the amount
+     * @return the amount counted in minor units
+     * @throws InvalidTransactionAmount if the amount has more decimals than the scale or does not fit into a long
+     */
+    public long toMinorUnits(long unscaledAmount, int amountScale) throws InvalidTransactionAmount {
+        return amountScale == scale ? unscaledAmount : toMinorUnits(BigDecimal.valueOf(unscaledAmount, amountScale));
+    }
+
+    /**
+     * Converts an amount to the smallest number of minor units not below it, saturating at the range of a long.
+     * Used for the lower bound of an amount range, which may have more decimals than the scale.
+     *
+     * @param amount the amount to convert
+     * @return the amount rounded up to minor units
+     */
+    public long ceilToMinorUnits(BigDecimal amount) {
+        return saturatedMinorUnits(amount.setScale(scale, RoundingMode.CEILING));
+    }
+
+    /**
+     * Converts an amount to the largest number of minor units not above it, saturating at the range of a long.
+     * Used for the upper bound of an amount range, which may have more decimals than the scale.
+     *
+     * @param amount the amount to convert
+     * @return the amount rounded down to minor units
+     */
+    public long floorToMinorUnits(BigDecimal amount) {
+        return saturatedMinorUnits(amount.setScale(scale, RoundingMode.FLOOR));
+    }
+
+    /**
+     * Converts minor units back to an amount
+     *
+     * @param minorUnits the amount counted in minor units
+     * @return the amount, with exactly scale decimals
+     */
+    public BigDecimal toAmount(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, scale);
+    }
+
+    /**
+     * Adds two amounts counted in minor units
+     *
+     * @param first  the first amount
+     * @param second the second amount
+     * @return the sum of the amounts
+     * @throws InvalidTransactionAmount if the sum does not fit into a long
+     */
+    public static long add(long first, long second) throws InvalidTransactionAmount {
+        long sum = first + second;
+        // the sum overflowed if both operands have a sign different from the one of the result
+        if (((first ^ sum) & (second ^ sum)) < 0) {
+            throw new InvalidTransactionAmount();
+        }
+        return sum;
+    }
+
+    private static long saturatedMinorUnits(BigDecimal scaledAmount) {
+        if (scaledAmount.unscaledValue().bitLength() < Long.SIZE) {
+            return scaledAmount.unscaledValue().longValue();
+        }
+        return scaledAmount.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+    }
+}
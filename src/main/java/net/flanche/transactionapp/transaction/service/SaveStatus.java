@@ -0,0 +1,30 @@
+package net.flanche.transactionapp.transaction.service;
+
+/**
+ * Outcome of saving one transaction of a batch. Each failed status mirrors the exception that
+ * saving the transaction on its own would have thrown
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public enum SaveStatus {
+    /**
+     * The transaction was saved
+     */
+    SAVED,
+    /**
+     * The id of the transaction is already in use, see DuplicateTransactionException
+     */
+    DUPLICATE,
+    /**
+     * The type of the transaction is invalid, see InvalidTransactionType
+     */
+    INVALID_TYPE,
+    /**
+     * The parent of the transaction does not exist, see InvalidParentTransaction
+     */
+    INVALID_PARENT,
+    /**
+     * The amount of the transaction cannot be stored, see InvalidTransactionAmount
+     */
+    INVALID_AMOUNT
+}
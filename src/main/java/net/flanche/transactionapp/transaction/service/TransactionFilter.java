@@ -0,0 +1,68 @@
+package net.flanche.transactionapp.transaction.service;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+/**
+ * Optional id and amount ranges used to narrow down a query on transactions. All bounds are inclusive
+ * and a missing bound does not restrict the query
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionFilter {
+    private final Long minId;
+    private final Long maxId;
+    private final BigDecimal minAmount;
+    private final BigDecimal maxAmount;
+
+    /**
+     * Constructor for the class
+     *
+     * @param minId     the smallest id to return or null
+     * @param maxId     the largest id to return or null
+     * @param minAmount the smallest amount to return or null
+     * @param maxAmount the largest amount to return or null
+     */
+    public TransactionFilter(Long minId, Long maxId, BigDecimal minAmount, BigDecimal maxAmount) {
+        this.minId = minId;
+        this.maxId = maxId;
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+    }
+
+    /**
+     * Getter for the minId attribute
+     *
+     * @return the smallest id to return if any, otherwise Empty is returned
+     */
+    public Optional<Long> getMinId() {
+        return Optional.ofNullable(minId);
+    }
+
+    /**
+     * Getter for the maxId attribute
+     *
+     * @return the largest id to return if any, otherwise Empty is returned
+     */
+    public Optional<Long> getMaxId() {
+        return Optional.ofNullable(maxId);
+    }
+
+    /**
+     * Getter for the minAmount attribute
+     *
+     * @return the smallest amount to return if any, otherwise Empty is returned
+     */
+    public Optional<BigDecimal> getMinAmount() {
+        return Optional.ofNullable(minAmount);
+    }
+
+    /**
+     * Getter for the maxAmount attribute
+     *
+     * @return the largest amount to return if any, otherwise Empty is returned
+     */
+    public Optional<BigDecimal> getMaxAmount() {
+        return Optional.ofNullable(maxAmount);
+    }
+}
@@ -0,0 +1,42 @@
+package net.flanche.transactionapp.transaction.service;
+
+import java.util.OptionalLong;
+
+/**
+ * One page of transaction ids, in ascending order
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionIdPage {
+    private final long[] ids;
+    private final boolean hasMore;
+
+    /**
+     * Constructor for the class
+     *
+     * @param ids     the ids of the page in ascending order
+     * @param hasMore true if there are ids after this page
+     */
+    public TransactionIdPage(long[] ids, boolean hasMore) {
+        this.ids = ids;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * Getter for the ids attribute
+     *
+     * @return the ids of the page in ascending order
+     */
+    public long[] getIds() {
+        return ids;
+    }
+
+    /**
+     * Returns the id to continue from to get the next page
+     *
+     * @return the last id of the page if there are more ids after it, otherwise Empty is returned
+     */
+    public OptionalLong getNextAfterId() {
+        return hasMore ? OptionalLong.of(ids[ids.length - 1]) : OptionalLong.empty();
+    }
+}
@@ -0,0 +1,67 @@
+package net.flanche.transactionapp.transaction.service;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+/**
+ * Describes a transaction to be saved as part of a batch
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionRecord {
+    private final long id;
+    private final String type;
+    private final BigDecimal amount;
+    private final Long parentId;
+
+    /**
+     * Constructor for the class
+     *
+     * @param id       the id of the transaction
+     * @param type     the type of the transaction
+     * @param amount   the amount used in the transaction
+     * @param parentId the id of the parent transaction or null if the transaction has no parent
+     */
+    public TransactionRecord(long id, String type, BigDecimal amount, Long parentId) {
+        this.id = id;
+        this.type = type;
+        this.amount = amount;
+        this.parentId = parentId;
+    }
+
+    /**
+     * Getter for the id attribute
+     *
+     * @return the id of the transaction
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the type attribute
+     *
+     * @return the type of the transaction
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Getter for the amount attribute
+     *
+     * @return the amount of the transaction
+     */
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    /**
+     * Getter for the parentId attribute
+     *
+     * @return the parent id of this transaction if any, otherwise Empty is returned
+     */
+    public Optional<Long> getParentId() {
+        return Optional.ofNullable(parentId);
+    }
+}
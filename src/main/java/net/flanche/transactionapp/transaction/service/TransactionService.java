@@ -3,8 +3,11 @@ package net.flanche.transactionapp.transaction.service;
 import net.flanche.transactionapp.transaction.domain.Transaction;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.LongStream;
 
 /**
  * A service used for operation on transactions
@@ -22,6 +25,14 @@ public interface TransactionService {
      */
     Optional<Transaction> getTransactionById(long id);
 
+    /**
+     * Returns the transactions of the given ids in a single lookup. Ids that belong to no transaction are skipped
+     *
+     * @param ids the ids of the transactions
+     * @return the transactions found, in the order of their ids in the given list
+     */
+    List<Transaction> getTransactionsByIds(List<Long> ids);
+
     /**
      * Returns all the transactions of a given type
      *
@@ -30,6 +41,44 @@ public interface TransactionService {
      */
     List<Transaction> getTransactionsOfType(String type) throws InvalidTransactionType;
 
+    /**
+     * Returns the ids of all the transactions of a given type as a lazy stream. The ids are fetched
+     * a page at a time while the stream is consumed, so the memory used does not depend on how many
+     * transactions have the type
+     *
+     * @param type the type to filter transactions with
+     * @return a stream of the ids of the transactions with the given type
+     */
+    LongStream streamTransactionIdsOfType(String type) throws InvalidTransactionType;
+
+    /**
+     * Returns one page of the ids of the transactions of a given type, in ascending order. The page starts
+     * right after the given id, so the next page is requested with the last id of the current one
+     *
+     * @param type    the type to filter transactions with
+     * @param filter  the id and amount ranges the transactions must be in
+     * @param afterId only ids greater than this one are returned, Empty to start with the first page
+     * @param limit   the maximum number of ids in the page
+     * @return the page of ids
+     */
+    TransactionIdPage getTransactionIdsOfType(String type, TransactionFilter filter, OptionalLong afterId, int limit) throws InvalidTransactionType;
+
+    /**
+     * Returns the number of transactions of a type and the total, minimum and maximum of their amounts.
+     * The statistics are maintained as transactions are saved, so reading them never goes through the transactions
+     *
+     * @param type the type to return the statistics of
+     * @return the statistics of the type or empty if no transaction of the type was saved
+     */
+    Optional<TransactionTypeStats> getTypeStats(String type) throws InvalidTransactionType;
+
+    /**
+     * Returns the statistics of every type that has transactions, see getTypeStats
+     *
+     * @return the statistics of each type, ordered by type
+     */
+    List<TransactionTypeStats> getAllTypeStats();
+
     /**
      * Returns the sum of all amounts belonging to transactions that
      * are transitively linked to the given transaction id
@@ -39,6 +88,24 @@ public interface TransactionService {
      */
     BigDecimal getTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId;
 
+    /**
+     * Recomputes the sum of the transaction tree from scratch and compares it with the
+     * total maintained for it on insert
+     *
+     * @param transactionId the transaction id of the parent
+     * @return true if the maintained total matches the recomputed one, false otherwise
+     */
+    boolean checkTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId;
+
+    /**
+     * Returns a transaction together with its descendants down to a given number of levels below it
+     *
+     * @param transactionId the id of the transaction at the root of the subtree
+     * @param maxDepth      the number of levels of descendants to return, 0 returns only the transaction itself
+     * @return the transactions of the subtree ordered by depth, the transaction itself being the first one
+     */
+    List<Transaction> getTransactionTree(long transactionId, int maxDepth) throws InvalidTransactionId;
+
     /**
      * Saves a transaction to be later used in the application
      *
@@ -47,7 +114,7 @@ public interface TransactionService {
      * @param amount        the amount used in the transaction
      * @return a valid transaction object
      */
-    Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType;
+    Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount;
 
     /**
      * Saves a transaction to be later used in the application
@@ -58,7 +125,36 @@ public interface TransactionService {
      * @param parentTransactionId the id of the parent transaction
      * @return a valid transaction object
      */
-    Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType;
-
+    Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount;
 
+    /**
+     * Saves a batch of transactions in order. A transaction can have as parent any transaction saved
+     * before it, including the ones earlier in the same batch. An invalid transaction does not stop the batch.
+     * The default implementation saves the transactions one by one, backends can do it more efficiently.
+     *
+     * @param transactions the transactions to save
+     * @return the outcome for each transaction, in the same order as the given transactions
+     */
+    default List<SaveStatus> saveTransactions(List<TransactionRecord> transactions) {
+        List<SaveStatus> result = new ArrayList<>(transactions.size());
+        for (TransactionRecord transaction : transactions) {
+            try {
+                if (transaction.getParentId().isPresent()) {
+                    saveTransaction(transaction.getId(), transaction.getType(), transaction.getAmount(), transaction.getParentId().get());
+                } else {
+                    saveTransaction(transaction.getId(), transaction.getType(), transaction.getAmount());
+                }
+                result.add(SaveStatus.SAVED);
+            } catch (DuplicateTransactionException e) {
+                result.add(SaveStatus.DUPLICATE);
+            } catch (InvalidTransactionType e) {
+                result.add(SaveStatus.INVALID_TYPE);
+            } catch (InvalidParentTransaction e) {
+                result.add(SaveStatus.INVALID_PARENT);
+            } catch (InvalidTransactionAmount e) {
+                result.add(SaveStatus.INVALID_AMOUNT);
+            }
+        }
+        return result;
+    }
 }
@@ -0,0 +1,78 @@
+package net.flanche.transactionapp.transaction.service;
+
+import java.math.BigDecimal;
+
+/**
+ * The number of transactions of a type together with the total, the smallest and the largest of their amounts
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionTypeStats {
+    private final String type;
+    private final long count;
+    private final BigDecimal total;
+    private final BigDecimal min;
+    private final BigDecimal max;
+
+    /**
+     * Constructor for the class
+     *
+     * @param type  the type of the transactions
+     * @param count the number of transactions of the type
+     * @param total the sum of their amounts
+     * @param min   the smallest of their amounts
+     * @param max   the largest of their amounts
+     */
+    public TransactionTypeStats(String type, long count, BigDecimal total, BigDecimal min, BigDecimal max) {
+        this.type = type;
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Getter for the type attribute
+     *
+     * @return the type of the transactions
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Getter for the count attribute
+     *
+     * @return the number of transactions of the type
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Getter for the total attribute
+     *
+     * @return the sum of the amounts of the transactions of the type
+     */
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    /**
+     * Getter for the min attribute
+     *
+     * @return the smallest amount of a transaction of the type
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * Getter for the max attribute
+     *
+     * @return the largest amount of a transaction of the type
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,1042 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+import net.flanche.transactionapp.collections.ConcurrentLongObjectMap;
+import net.flanche.transactionapp.collections.LongArrayList;
+import net.flanche.transactionapp.collections.PagedLongIterator;
+import net.flanche.transactionapp.concurrent.StripedLock;
+import net.flanche.transactionapp.metrics.Histogram;
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.domain.TransactionType;
+import net.flanche.transactionapp.transaction.service.*;
+import net.flanche.transactionapp.transaction.storage.TransactionLog;
+import net.flanche.transactionapp.transaction.storage.TransactionSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.LongStream;
+
+/**
+ * Implementation of the TransactionService interface that keeps all the transactions in process memory.
+ * The transactions are indexed by id, by type and by parent using primitive keyed containers, so every
+ * lookup is a hash lookup and no Long is boxed per entry. Types are interned into a dictionary of TransactionType
+ * entries on save, so all the transactions of a type share one instance and the type is resolved once per request.
+ * Enabled with transaction.store=memory, the JPA backed TransactionServiceImpl is used otherwise.
+ * <p>
+ * The id index is split in lock striped segments and claiming an id is a single putIfAbsent, so concurrent
+ * inserts of different ids run in parallel and concurrent inserts of the same id have exactly one winner.
+ * </p>
+ * <p>
+ * A save under a parent updates the subtree totals of the ancestors and links the transaction to its parent while
+ * holding the lock striped on the root of its tree, which getTotalAmountOfChildrenTransactions and
+ * checkTotalAmountOfChildrenTransactions take as well. A total read is thus never ahead of the transactions the
+ * traversal can reach, while saves in different trees run in parallel.
+ * </p>
+ * <p>
+ * Amounts and subtree totals are held as longs counting minor units at the scale of transaction.amount-scale, so
+ * maintaining and recomputing totals never allocates. A transaction whose amount would overflow the total of one of
+ * its ancestors is rejected.
+ * </p>
+ * <p>
+ * When transaction.log.directory is set, every saved transaction is also appended to a memory mapped TransactionLog
+ * before it becomes visible, and the log is replayed on startup to rebuild the indexes and the subtree totals.
+ * A save the log cannot take thus leaves no trace, and a transaction is always logged after its parent.
+ * A TransactionSnapshot of all the transactions and their subtree totals is also written every
+ * transaction.snapshot.interval-seconds, so startup only replays the records logged after the latest snapshot.
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@Service
+@ConditionalOnProperty(name = "transaction.store", havingValue = "memory")
+public class InMemoryTransactionServiceImpl implements TransactionService, Closeable {
+    private static final int CONCURRENCY_LEVEL = 64;
+    private static final int PAGE_SIZE = 1024;
+    private static final int ROOT_LOCK_STRIPES = 256;
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryTransactionServiceImpl.class);
+
+    private final ConcurrentLongObjectMap<Node> nodes = new ConcurrentLongObjectMap<>(CONCURRENCY_LEVEL);
+    private final ConcurrentMap<String, TypeIndex> typeIndexes = new ConcurrentHashMap<>();
+    // held while a save changes the totals and the children of a tree, and while they are read
+    private final StripedLock rootLocks = new StripedLock(ROOT_LOCK_STRIPES);
+    // the ids of the saves being logged, only used with the transaction log
+    private final ConcurrentMap<Long, Node> claimedIds = new ConcurrentHashMap<>();
+    // only used without the transaction log, whose dictionary gives the type ids otherwise
+    private final AtomicInteger nextTypeId = new AtomicInteger();
+    private final Path logDirectory;
+    private final TransactionLog transactionLog;
+    private final MinorUnits minorUnits;
+    private final GaugeService gaugeService;
+    private final Histogram sumNodes;
+    private final Histogram sumDepth;
+    private final long sumParallelThreshold;
+    private final ForkJoinPool sumPool;
+    // held for reading while a save is inserted and logged, and for writing while a snapshot copies the totals
+    private final StampedLock snapshotLock = new StampedLock();
+    private final ScheduledExecutorService snapshotScheduler;
+    private long snapshotLogRecords;
+
+    @Autowired
+    public InMemoryTransactionServiceImpl(@Value("${transaction.amount-scale:2}") int amountScale,
+                                          @Value("${transaction.log.directory:}") String logDirectory,
+                                          @Value("${transaction.log.segment-size:67108864}") int logSegmentSize,
+                                          @Value("${transaction.log.sync:true}") boolean logSync,
+                                          @Value("${transaction.snapshot.interval-seconds:600}") long snapshotIntervalSeconds,
+                                          @Value("${transaction.sum.parallel-threshold:10000}") long sumParallelThreshold,
+                                          @Value("${transaction.sum.parallelism:0}") int sumParallelism,
+                                          GaugeService gaugeService,
+                                          TransactionMetrics transactionMetrics) throws IOException {
+        this.minorUnits = new MinorUnits(amountScale);
+        this.sumParallelThreshold = sumParallelThreshold;
+        this.sumPool = new ForkJoinPool(sumParallelism > 0 ? sumParallelism : Runtime.getRuntime().availableProcessors());
+        this.gaugeService = gaugeService;
+        this.sumNodes = transactionMetrics.histogram("transaction.sum.nodes");
+        this.sumDepth = transactionMetrics.histogram("transaction.sum.depth");
+        transactionMetrics.gauge("transaction.store.size", nodes::size);
+        if (logDirectory.isEmpty()) {
+            this.logDirectory = null;
+            this.transactionLog = null;
+            this.snapshotScheduler = null;
+            return;
+        }
+        this.logDirectory = Paths.get(logDirectory);
+        this.transactionLog = new TransactionLog(this.logDirectory, logSegmentSize, logSync);
+        long start = System.nanoTime();
+        Optional<Long> loadedSnapshot = loadSnapshot();
+        this.snapshotLogRecords = loadedSnapshot.orElse(0L);
+        if (snapshotLogRecords > transactionLog.size()) {
+            // replaying would skip the saves appended where the missing records were
+            transactionLog.close();
+            throw new IOException("The snapshot covers " + snapshotLogRecords + " log records but the log only holds "
+                    + transactionLog.size());
+        }
+        replay(snapshotLogRecords, loadedSnapshot.isPresent());
+        gaugeService.submit("transaction.snapshot.load.duration", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (snapshotIntervalSeconds > 0) {
+            this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "transaction-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.snapshotScheduler = null;
+        }
+    }
+
+    /**
+     * Stops the snapshots and the sum pool and closes the transaction log, if any, forcing it to disk
+     */
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        sumPool.shutdown();
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        if (transactionLog != null) {
+            synchronized (this) {
+                transactionLog.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of all the transactions saved so far, unless nothing was saved since the last one.
+     * Saves are only paused while the nodes and their subtree totals are copied, the snapshot is ordered and
+     * written to disk while saves go on. The log records it covers are forced to disk before it is written, even
+     * with transaction.log.sync off, so after a crash the log is never shorter than the latest snapshot says.
+     * The time taken, the pause and the size of the snapshot are submitted as the transaction.snapshot gauges.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot() throws IOException {
+        if (transactionLog == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        long logRecords;
+        Node[] captured;
+        long[] capturedTotals;
+        long stamp = snapshotLock.writeLock();
+        try {
+            logRecords = transactionLog.size();
+            if (logRecords == snapshotLogRecords) {
+                return;
+            }
+            captured = new Node[nodes.size()];
+            capturedTotals = new long[captured.length];
+            int[] count = new int[1];
+            nodes.forEach((id, node) -> {
+                captured[count[0]] = node;
+                capturedTotals[count[0]++] = node.subtreeTotal.get();
+            });
+        } finally {
+            snapshotLock.unlockWrite(stamp);
+        }
+        long pause = System.nanoTime() - start;
+
+        // a counting sort by depth puts every parent before its children
+        int maxDepth = 0;
+        for (Node node : captured) {
+            maxDepth = Math.max(maxDepth, node.transaction.getDepth());
+        }
+        int[] depthStarts = new int[maxDepth + 2];
+        for (Node node : captured) {
+            depthStarts[node.transaction.getDepth() + 1]++;
+        }
+        for (int depth = 1; depth < depthStarts.length; depth++) {
+            depthStarts[depth] += depthStarts[depth - 1];
+        }
+        int[] order = new int[captured.length];
+        for (int i = 0; i < captured.length; i++) {
+            int row = depthStarts[captured[i].transaction.getDepth()]++;
+            order[row] = i;
+            captured[i].snapshotRow = row;
+        }
+
+        transactionLog.force(logRecords);
+        long size = TransactionSnapshot.write(logDirectory, logRecords, minorUnits.getScale(), new TransactionSnapshot.Rows() {
+            @Override
+            public int size() {
+                return order.length;
+            }
+
+            @Override
+            public long getId(int row) {
+                return captured[order[row]].transaction.getId();
+            }
+
+            @Override
+            public int getParentRow(int row) {
+                Node parent = captured[order[row]].parent;
+                return parent == null ? TransactionSnapshot.NO_PARENT : parent.snapshotRow;
+            }
+
+            @Override
+            public String getType(int row) {
+                return captured[order[row]].transaction.getType();
+            }
+
+            @Override
+            public long getAmount(int row) {
+                return captured[order[row]].transaction.getMinorUnits();
+            }
+
+            @Override
+            public long getTotal(int row) {
+                return capturedTotals[order[row]];
+            }
+        });
+        snapshotLogRecords = logRecords;
+        gaugeService.submit("transaction.snapshot.duration", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        gaugeService.submit("transaction.snapshot.pause", TimeUnit.NANOSECONDS.toMillis(pause));
+        gaugeService.submit("transaction.snapshot.size", size);
+        gaugeService.submit("transaction.snapshot.transactions", captured.length);
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not write a snapshot of the transactions", e);
+        }
+    }
+
+    /**
+     * Complexity is O(1) as we do a single hash lookup on the id
+     */
+    @Override
+    public Optional<Transaction> getTransactionById(long id) {
+        Node node = nodes.get(id);
+        return node == null ? Optional.empty() : Optional.of(node.transaction);
+    }
+
+    /**
+     * Complexity is O(n) for n ids, a hash lookup each
+     */
+    @Override
+    public List<Transaction> getTransactionsByIds(List<Long> ids) {
+        List<Transaction> result = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            Node node = nodes.get(id);
+            if (node != null) {
+                result.add(node.transaction);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Complexity is O(1) to find the transactions of the type plus O(k) to copy the k matching transactions.
+     * The type index is kept sorted, so the transactions are returned in ascending id order.
+     */
+    @Override
+    public List<Transaction> getTransactionsOfType(String type) throws InvalidTransactionType {
+        checkTransactionType(type);
+        TypeIndex typeIndex = typeIndexes.get(type);
+        if (typeIndex == null) {
+            return new ArrayList<>();
+        }
+        LongArrayList transactionIds = typeIndex.transactionIds;
+        long[] ids;
+        synchronized (transactionIds) {
+            ids = transactionIds.toArray();
+        }
+        List<Transaction> result = new ArrayList<>(ids.length);
+        for (long transactionId : ids) {
+            result.add(nodes.get(transactionId).transaction);
+        }
+        return result;
+    }
+
+    /**
+     * Complexity is O(1) to find the transactions of the type plus O(k) to go through the k matching ids, which are
+     * returned in ascending order. The ids are copied out of the type index a page at a time, so the index is only
+     * locked briefly and the memory used stays constant.
+     */
+    @Override
+    public LongStream streamTransactionIdsOfType(String type) throws InvalidTransactionType {
+        checkTransactionType(type);
+        TypeIndex typeIndex = typeIndexes.get(type);
+        if (typeIndex == null) {
+            return LongStream.empty();
+        }
+        LongArrayList transactionIds = typeIndex.transactionIds;
+        return new PagedLongIterator() {
+            private long fromId = Long.MIN_VALUE;
+            private boolean exhausted;
+
+            @Override
+            protected long[] nextPage() {
+                if (exhausted) {
+                    return new long[0];
+                }
+                long[] page = copyIds(transactionIds, fromId, new long[PAGE_SIZE]);
+                if (page.length > 0) {
+                    exhausted = page[page.length - 1] == Long.MAX_VALUE;
+                    fromId = page[page.length - 1] + 1;
+                }
+                return page;
+            }
+        }.stream();
+    }
+
+    /**
+     * Complexity is O(log(k)) to find where the page starts among the k ids of the type, as the type index is kept
+     * sorted, plus O(p) for the ids scanned to fill the page. Without an amount range p is the page size, so every
+     * page costs the same no matter how deep it is. The amount range is converted to minor units once, so checking
+     * an amount is a comparison of longs.
+     */
+    @Override
+    public TransactionIdPage getTransactionIdsOfType(String type, TransactionFilter filter, OptionalLong afterId, int limit) throws InvalidTransactionType {
+        checkTransactionType(type);
+        TypeIndex typeIndex = typeIndexes.get(type);
+        if (typeIndex == null || (afterId.isPresent() && afterId.getAsLong() == Long.MAX_VALUE)) {
+            return new TransactionIdPage(new long[0], false);
+        }
+        LongArrayList transactionIds = typeIndex.transactionIds;
+        long fromId = Math.max(afterId.isPresent() ? afterId.getAsLong() + 1 : Long.MIN_VALUE, filter.getMinId().orElse(Long.MIN_VALUE));
+        long toId = filter.getMaxId().orElse(Long.MAX_VALUE);
+        long minAmount = filter.getMinAmount().map(minorUnits::ceilToMinorUnits).orElse(Long.MIN_VALUE);
+        long maxAmount = filter.getMaxAmount().map(minorUnits::floorToMinorUnits).orElse(Long.MAX_VALUE);
+        long[] page = new long[limit + 1];
+        int count = 0;
+        long[] chunk = new long[Math.min(PAGE_SIZE, limit + 1)];
+        while (count <= limit) {
+            long[] ids = copyIds(transactionIds, fromId, chunk);
+            if (ids.length == 0) {
+                break;
+            }
+            for (int i = 0; i < ids.length && count <= limit && ids[i] <= toId; i++) {
+                long amount = nodes.get(ids[i]).transaction.getMinorUnits();
+                if (amount >= minAmount && amount <= maxAmount) {
+                    page[count++] = ids[i];
+                }
+            }
+            long lastId = ids[ids.length - 1];
+            if (lastId >= toId) {
+                break;
+            }
+            fromId = lastId + 1;
+        }
+        return new TransactionIdPage(Arrays.copyOf(page, Math.min(count, limit)), count > limit);
+    }
+
+    /**
+     * Complexity is O(1) as the statistics of each type are kept in its entry of the type index and updated on insert
+     */
+    @Override
+    public Optional<TransactionTypeStats> getTypeStats(String type) throws InvalidTransactionType {
+        checkTransactionType(type);
+        TypeIndex typeIndex = typeIndexes.get(type);
+        return typeIndex == null ? Optional.empty() : typeIndex.stats.toStats(type, minorUnits);
+    }
+
+    /**
+     * Complexity is O(t * log(t)) for t types, reading the statistics of each type and sorting them
+     */
+    @Override
+    public List<TransactionTypeStats> getAllTypeStats() {
+        List<TransactionTypeStats> result = new ArrayList<>(typeIndexes.size());
+        typeIndexes.forEach((type, typeIndex) -> typeIndex.stats.toStats(type, minorUnits).ifPresent(result::add));
+        result.sort(Comparator.comparing(TransactionTypeStats::getType));
+        return result;
+    }
+
+    /**
+     * Copies the ids of a type index starting with the first one not smaller than fromId. The start is searched for
+     * on every call rather than remembered, so ids inserted concurrently cannot make a page skip or repeat an id.
+     *
+     * @return the copied ids, at most as many as fit into the buffer
+     */
+    private long[] copyIds(LongArrayList transactionIds, long fromId, long[] buffer) {
+        int count;
+        synchronized (transactionIds) {
+            count = transactionIds.copyTo(transactionIds.lowerBound(fromId), buffer);
+        }
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Complexity is O(1) as the total of each subtree is materialized on insert. The total is read under the lock of
+     * the tree, so it never counts a save still in progress.
+     */
+    @Override
+    public BigDecimal getTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        Node node = getNode(transactionId);
+        long total;
+        Lock rootLock = lockTree(node);
+        try {
+            total = node.subtreeTotal.get();
+        } finally {
+            rootLock.unlock();
+        }
+        return minorUnits.toAmount(total);
+    }
+
+    /**
+     * Complexity is O(n) where n is the size of the subtree, as we walk the children index to recompute the total.
+     * Subtrees of more than transaction.sum.parallel-threshold transactions are walked in parallel, see
+     * sumOfTransactionTree. Saves into the tree wait for the check, so the total and the transactions walked agree.
+     */
+    @Override
+    public boolean checkTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        Node node = getNode(transactionId);
+        Lock rootLock = lockTree(node);
+        try {
+            return sumOfTransactionTree(node) == node.subtreeTotal.get();
+        } finally {
+            rootLock.unlock();
+        }
+    }
+
+    /**
+     * Locks the tree of a node against saves under any of its transactions
+     *
+     * @return the lock of the tree, to be unlocked by the caller
+     */
+    private Lock lockTree(Node node) {
+        Lock rootLock = rootLocks.get(node.root.transaction.getId());
+        rootLock.lock();
+        return rootLock;
+    }
+
+    /**
+     * Complexity is O(k) for the k returned transactions, as we go through the subtree level by level using the
+     * children index
+     */
+    @Override
+    public List<Transaction> getTransactionTree(long transactionId, int maxDepth) throws InvalidTransactionId {
+        List<Transaction> result = new ArrayList<>();
+        List<Node> level = new ArrayList<>();
+        level.add(getNode(transactionId));
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            List<Node> nextLevel = new ArrayList<>();
+            for (Node node : level) {
+                result.add(node.transaction);
+                if (depth < maxDepth) {
+                    long[] childrenIds;
+                    synchronized (node.childrenIds) {
+                        childrenIds = node.childrenIds.toArray();
+                    }
+                    for (long childId : childrenIds) {
+                        nextLevel.add(nodes.get(childId));
+                    }
+                }
+            }
+            nextLevel.sort(Comparator.comparingLong(node -> node.transaction.getId()));
+            level = nextLevel;
+        }
+        return result;
+    }
+
+    /**
+     * Complexity is O(1) as we only insert into the id and type indexes. The amount, the id and the type are checked
+     * in the same order as the jpa store checks them, so an invalid save fails the same way with both stores.
+     */
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        long amountInMinorUnits = minorUnits.toMinorUnits(amount);
+        if (nodes.get(transactionId) != null) {
+            throw new DuplicateTransactionException();
+        }
+        checkTransactionType(type);
+        TypeIndex typeIndex = internType(type);
+        Node node = new Node(new Transaction(transactionId, amountInMinorUnits, minorUnits.getScale(), typeIndex.type), null);
+        long logPosition;
+        long stamp = lockForSave();
+        try {
+            claim(node);
+            try {
+                logPosition = write(node);
+                insert(node, typeIndex);
+            } finally {
+                unclaim(node);
+            }
+        } finally {
+            unlockForSave(stamp);
+        }
+        awaitDurable(node, logPosition);
+        return node.transaction;
+    }
+
+    /**
+     * Complexity is O(d) where d is the depth of the new transaction, as its amount is added to the total of
+     * every ancestor. The totals are updated before the transaction becomes visible, so a transaction that would
+     * overflow one of them is rejected before it becomes visible, and they are restored if the id turns out to be
+     * taken or the transaction cannot be logged. Everything from updating the totals to linking the transaction to
+     * its parent happens under the lock of the tree, so readers of the totals see the save either whole or not at
+     * all. The amount, the id, the type and the parent are checked in the same order as the jpa store checks them.
+     */
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        long amountInMinorUnits = minorUnits.toMinorUnits(amount);
+        if (nodes.get(transactionId) != null) {
+            throw new DuplicateTransactionException();
+        }
+        checkTransactionType(type);
+        Node parentNode = nodes.get(parentTransactionId);
+        if (parentNode == null) {
+            throw new InvalidParentTransaction();
+        }
+        TypeIndex typeIndex = internType(type);
+        Node node = new Node(new Transaction(transactionId, amountInMinorUnits, minorUnits.getScale(), typeIndex.type, parentNode.transaction), parentNode);
+        long logPosition;
+        long stamp = lockForSave();
+        Lock rootLock = lockTree(node);
+        try {
+            claim(node);
+            try {
+                addToAncestorTotals(node, amountInMinorUnits);
+                try {
+                    logPosition = write(node);
+                    insert(node, typeIndex);
+                } catch (DuplicateTransactionException | UncheckedIOException e) {
+                    takeFromAncestorTotals(node, null, amountInMinorUnits);
+                    throw e;
+                }
+            } finally {
+                unclaim(node);
+            }
+            synchronized (parentNode.childrenIds) {
+                parentNode.childrenIds.add(transactionId);
+            }
+            for (Node ancestor = parentNode; ancestor != null; ancestor = ancestor.parent) {
+                ancestor.subtreeSize.incrementAndGet();
+            }
+        } finally {
+            rootLock.unlock();
+            unlockForSave(stamp);
+        }
+        awaitDurable(node, logPosition);
+        return node.transaction;
+    }
+
+    /**
+     * Claims the id of a node before it is logged, when the transaction log is enabled. The node only becomes visible
+     * once logged, so a save the log cannot take is not seen by any read, and the claim keeps a concurrent save of
+     * the same id from logging a second record meanwhile. Without the log insert claims the id.
+     *
+     * @throws DuplicateTransactionException if a transaction with the id is saved or being saved
+     */
+    private void claim(Node node) throws DuplicateTransactionException {
+        if (transactionLog == null) {
+            return;
+        }
+        long transactionId = node.transaction.getId();
+        if (claimedIds.putIfAbsent(transactionId, node) != null) {
+            throw new DuplicateTransactionException();
+        }
+        // a node is inserted before its claim is released, so it is found here once its claim is gone
+        if (nodes.get(transactionId) != null) {
+            claimedIds.remove(transactionId, node);
+            throw new DuplicateTransactionException();
+        }
+    }
+
+    private void unclaim(Node node) {
+        if (transactionLog != null) {
+            claimedIds.remove(node.transaction.getId(), node);
+        }
+    }
+
+    /**
+     * Claims the id of the node, adds it to the sorted type index and adds its amount to the statistics of the type.
+     * The putIfAbsent on the id index is the single
+     * atomic step that detects duplicates, so there is no window between the check and the insert.
+     */
+    private void insert(Node node, TypeIndex typeIndex) throws DuplicateTransactionException {
+        Transaction transaction = node.transaction;
+        if (nodes.putIfAbsent(transaction.getId(), node) != null) {
+            throw new DuplicateTransactionException();
+        }
+        LongArrayList transactionIds = typeIndex.transactionIds;
+        synchronized (transactionIds) {
+            transactionIds.addSorted(transaction.getId());
+        }
+        typeIndex.stats.add(transaction.getMinorUnits());
+    }
+
+    /**
+     * Adds an amount to the subtree totals of all the ancestors of a node. If a total would overflow, the amount is
+     * taken back from the ancestors it was already added to and the transaction is rejected.
+     */
+    private void addToAncestorTotals(Node node, long amount) throws InvalidTransactionAmount {
+        for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            try {
+                ancestor.addToSubtreeTotal(amount);
+            } catch (InvalidTransactionAmount e) {
+                takeFromAncestorTotals(node, ancestor, amount);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes back an amount added to the subtree totals of the ancestors of a node, up to the given ancestor excluded
+     */
+    private void takeFromAncestorTotals(Node node, Node end, long amount) {
+        for (Node ancestor = node.parent; ancestor != end; ancestor = ancestor.parent) {
+            ancestor.subtreeTotal.addAndGet(-amount);
+        }
+    }
+
+    /**
+     * Keeps snapshots from starting while a save is in progress, so a snapshot never sees a transaction that is
+     * visible but not yet logged or a subtree total that lacks it. Only needed when the transaction log is enabled,
+     * in which case the writes to the log are serialized anyway.
+     *
+     * @return the stamp to pass to unlockForSave
+     */
+    private long lockForSave() {
+        return transactionLog == null ? 0 : snapshotLock.readLock();
+    }
+
+    private void unlockForSave(long stamp) {
+        if (stamp != 0) {
+            snapshotLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes a claimed node to the transaction log, if any, without waiting for it to be durable
+     *
+     * @return the position right after the record of the node, 0 without the log
+     * @throws UncheckedIOException if the node cannot be logged, in which case the save fails without a trace
+     */
+    private long write(Node node) {
+        if (transactionLog == null) {
+            return 0;
+        }
+        Transaction transaction = node.transaction;
+        try {
+            return transactionLog.write(transaction.getId(), transaction.getTransactionType().getId(), transaction.getMinorUnits(),
+                    transaction.getAmountScale(), transaction.getParentId().orElse(null));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append transaction " + transaction.getId() + " to the transaction log", e);
+        }
+    }
+
+    /**
+     * Waits until a written node is durable. Its ancestors were logged before they became visible, so their records
+     * come before its own and are durable with it.
+     */
+    private void awaitDurable(Node node, long logPosition) {
+        if (transactionLog == null) {
+            return;
+        }
+        try {
+            transactionLog.awaitDurable(logPosition);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not force transaction " + node.transaction.getId() + " to the transaction log", e);
+        }
+    }
+
+    /**
+     * Loads the latest snapshot written at the amount scale of the store, if any. The rows of a snapshot come parents
+     * first and point to their parent by row, so the nodes are linked without any lookup, and the subtree totals are
+     * read from the snapshot. The subtree sizes are counted once all the rows are read, adding the size of every node
+     * to its parent from the last row to the first.
+     *
+     * @return the number of log records covered by the snapshot, Empty if there is no snapshot
+     */
+    private Optional<Long> loadSnapshot() throws IOException {
+        List<Node> rows = new ArrayList<>();
+        int scale = minorUnits.getScale();
+        Optional<Long> logRecords = TransactionSnapshot.read(logDirectory, scale, (row, id, parentRow, type, amount, total) -> {
+            Node parentNode = parentRow == TransactionSnapshot.NO_PARENT ? null : rows.get(parentRow);
+            TypeIndex typeIndex = internType(type);
+            Node node = parentNode == null
+                    ? new Node(new Transaction(id, amount, scale, typeIndex.type), null)
+                    : new Node(new Transaction(id, amount, scale, typeIndex.type, parentNode.transaction), parentNode);
+            node.subtreeTotal.set(total);
+            restore(node, typeIndex);
+            rows.add(node);
+        });
+        for (int row = rows.size() - 1; row >= 0; row--) {
+            Node node = rows.get(row);
+            if (node.parent != null) {
+                node.parent.subtreeSize.addAndGet(node.subtreeSize.get());
+            }
+        }
+        return logRecords;
+    }
+
+    /**
+     * Rebuilds the indexes from the records of the transaction log that follow the snapshot, if any. A transaction
+     * is only logged once its parent is, but a child read before its parent still waits until the parent is read,
+     * as logs written when a parent was logged after becoming visible can hold such children.
+     * On top of a snapshot, the few replayed records add their amount to every ancestor like a save does. Otherwise
+     * the subtree totals and sizes are computed once at the end, adding the total and size of every node to its parent
+     * from the last node to the first, so a full replay is O(n) no matter how deep the trees are. Every total was within the range
+     * of a long when its transactions were saved, so the plain long additions give exact totals.
+     * The records are read as primitive fields and their amounts are already in minor units unless the scale changed,
+     * so a record only allocates its node, and its type is looked up by the id of the log instead of by name.
+     *
+     * @param fromRecord  the number of records covered by the snapshot
+     * @param incremental true if the records are replayed on top of a snapshot
+     */
+    private void replay(long fromRecord, boolean incremental) {
+        List<Node> replayOrder = new ArrayList<>();
+        Map<Long, List<WaitingRecord>> waitingForParent = new HashMap<>();
+        List<TypeIndex> typesById = new ArrayList<>();
+        transactionLog.replay(fromRecord, (id, parentId, hasParent, amount, amountScale, typeId) -> {
+            long amountInMinorUnits;
+            try {
+                amountInMinorUnits = minorUnits.toMinorUnits(amount, amountScale);
+            } catch (InvalidTransactionAmount e) {
+                throw new IllegalStateException("The amount " + BigDecimal.valueOf(amount, amountScale) + " of the logged transaction " + id
+                        + " cannot be counted in minor units at transaction.amount-scale");
+            }
+            TypeIndex typeIndex = getReplayedType(typeId, typesById);
+            Node parentNode = null;
+            if (hasParent) {
+                parentNode = nodes.get(parentId);
+                if (parentNode == null) {
+                    waitingForParent.computeIfAbsent(parentId, waitingParentId -> new ArrayList<>())
+                            .add(new WaitingRecord(id, amountInMinorUnits, typeIndex));
+                    return;
+                }
+            }
+            restore(id, amountInMinorUnits, typeIndex, parentNode, replayOrder, waitingForParent);
+        });
+        for (int i = replayOrder.size() - 1; i >= 0; i--) {
+            Node node = replayOrder.get(i);
+            if (incremental) {
+                for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+                    ancestor.subtreeTotal.addAndGet(node.transaction.getMinorUnits());
+                    ancestor.subtreeSize.incrementAndGet();
+                }
+            } else if (node.parent != null) {
+                node.parent.subtreeTotal.addAndGet(node.subtreeTotal.get());
+                node.parent.subtreeSize.addAndGet(node.subtreeSize.get());
+            }
+        }
+    }
+
+    /**
+     * Returns the entry of the type index of a type the log references by the given id
+     */
+    private TypeIndex getReplayedType(int typeId, List<TypeIndex> typesById) {
+        while (typesById.size() <= typeId) {
+            typesById.add(null);
+        }
+        TypeIndex typeIndex = typesById.get(typeId);
+        if (typeIndex == null) {
+            typeIndex = internType(transactionLog.getType(typeId));
+            typesById.set(typeId, typeIndex);
+        }
+        return typeIndex;
+    }
+
+    /**
+     * Adds a transaction read from the log to the indexes, followed by the children read before it
+     *
+     * @param parentNode the node of the parent transaction, null for a root transaction
+     */
+    private void restore(long id, long amount, TypeIndex typeIndex, Node parentNode, List<Node> replayOrder, Map<Long, List<WaitingRecord>> waitingForParent) {
+        Node node = parentNode == null
+                ? new Node(new Transaction(id, amount, minorUnits.getScale(), typeIndex.type), null)
+                : new Node(new Transaction(id, amount, minorUnits.getScale(), typeIndex.type, parentNode.transaction), parentNode);
+        restore(node, typeIndex);
+        replayOrder.add(node);
+        List<WaitingRecord> children = waitingForParent.remove(id);
+        if (children != null) {
+            children.forEach(child -> restore(child.id, child.amount, child.typeIndex, node, replayOrder, waitingForParent));
+        }
+    }
+
+    /**
+     * Adds a node read back from a snapshot or the log to the indexes, startup being single threaded
+     */
+    private void restore(Node node, TypeIndex typeIndex) {
+        Transaction transaction = node.transaction;
+        nodes.putIfAbsent(transaction.getId(), node);
+        typeIndex.transactionIds.addSorted(transaction.getId());
+        typeIndex.stats.add(transaction.getMinorUnits());
+        if (node.parent != null) {
+            node.parent.childrenIds.add(transaction.getId());
+        }
+    }
+
+    private Node getNode(long transactionId) throws InvalidTransactionId {
+        Node node = nodes.get(transactionId);
+        if (node == null) {
+            throw new InvalidTransactionId();
+        }
+        return node;
+    }
+
+    /**
+     * Returns the entry of a type in the type index, adding the type to the dictionary if it is new. With the
+     * transaction log the type gets the id of the dictionary of the log, so the transactions reference their type by
+     * the same id in memory and in their log records, otherwise the next id of a counter.
+     *
+     * @throws UncheckedIOException if a new type cannot be added to the dictionary of the log
+     */
+    private TypeIndex internType(String type) {
+        TypeIndex typeIndex = typeIndexes.get(type);
+        return typeIndex != null ? typeIndex
+                : typeIndexes.computeIfAbsent(type, name -> new TypeIndex(new TransactionType(newTypeId(name), name)));
+    }
+
+    private int newTypeId(String type) {
+        if (transactionLog == null) {
+            return nextTypeId.getAndIncrement();
+        }
+        try {
+            return transactionLog.getTypeId(type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not add the type " + type + " to the transaction log", e);
+        }
+    }
+
+    private void checkTransactionType(String type) throws InvalidTransactionType {
+        if (type == null || type.equals("")) {
+            throw new InvalidTransactionType();
+        }
+    }
+
+    /**
+     * Recomputes the sum of the transaction tree with a depth-first-search over the children index, recording the
+     * number of transactions visited as transaction.sum.nodes and the number of levels reached as transaction.sum.depth.
+     * The total of the tree fits into a long, so the plain long additions give the exact sum even if a partial sum
+     * wraps around. A tree of more than transaction.sum.parallel-threshold transactions is summed by a SubtreeSumTask
+     * on the fork-join sum pool instead, see SubtreeSumTask.
+     *
+     * @param root the node at the root of the tree
+     * @return the sum of the transaction tree in minor units
+     */
+    private long sumOfTransactionTree(Node root) {
+        if (root.subtreeSize.get() > sumParallelThreshold) {
+            LongArrayList rootIds = new LongArrayList(1);
+            rootIds.add(root.transaction.getId());
+            SubtreeSumTask task = new SubtreeSumTask(rootIds, root.subtreeSize.get());
+            sumPool.invoke(task);
+            sumNodes.record(task.visitedNodes);
+            sumDepth.record(task.maxDepth - root.transaction.getDepth());
+            return task.sum;
+        }
+        long sum = 0;
+        long visitedNodes = 0;
+        int maxDepth = root.transaction.getDepth();
+        LongArrayList transactionsToProcess = new LongArrayList();
+        transactionsToProcess.add(root.transaction.getId());
+        while (!transactionsToProcess.isEmpty()) {
+            Node currentNode = nodes.get(transactionsToProcess.removeLast());
+            sum += currentNode.transaction.getMinorUnits();
+            visitedNodes++;
+            maxDepth = Math.max(maxDepth, currentNode.transaction.getDepth());
+            synchronized (currentNode.childrenIds) {
+                currentNode.childrenIds.forEach(transactionsToProcess::add);
+            }
+        }
+        sumNodes.record(visitedNodes);
+        sumDepth.record(maxDepth - root.transaction.getDepth());
+        return sum;
+    }
+
+    /**
+     * Sums a part of a transaction tree on the sum pool, the subtrees of the ids on its stack. The task walks them
+     * depth first like the sequential traversal and keeps track of the number of transactions still to visit, from
+     * the subtree sizes. While that is above transaction.sum.parallel-threshold it hands subtrees worth half of it to
+     * a new task, which the idle threads of the pool steal. A wide tree is thus split along the children of a node and
+     * a deep one along its branches, while subtrees below the threshold are walked without any coordination.
+     * The subtree sizes are only used to split the work, so saves running meanwhile cannot make the sum wrong.
+     */
+    private class SubtreeSumTask extends RecursiveAction {
+        private final LongArrayList pendingIds;
+        private long pendingSize;
+        private long sum;
+        private long visitedNodes;
+        private int maxDepth;
+
+        private SubtreeSumTask(LongArrayList pendingIds, long pendingSize) {
+            this.pendingIds = pendingIds;
+            this.pendingSize = pendingSize;
+        }
+
+        @Override
+        protected void compute() {
+            List<SubtreeSumTask> forkedTasks = new ArrayList<>();
+            while (!pendingIds.isEmpty()) {
+                if (pendingSize > sumParallelThreshold && pendingIds.size() > 1) {
+                    forkedTasks.add(split());
+                }
+                Node currentNode = nodes.get(pendingIds.removeLast());
+                // the children replace the node, their subtrees being the subtree of the node without it
+                pendingSize--;
+                sum += currentNode.transaction.getMinorUnits();
+                visitedNodes++;
+                maxDepth = Math.max(maxDepth, currentNode.transaction.getDepth());
+                synchronized (currentNode.childrenIds) {
+                    currentNode.childrenIds.forEach(pendingIds::add);
+                }
+            }
+            for (SubtreeSumTask task : forkedTasks) {
+                task.join();
+                sum += task.sum;
+                visitedNodes += task.visitedNodes;
+                maxDepth = Math.max(maxDepth, task.maxDepth);
+            }
+        }
+
+        /**
+         * Moves subtrees from the top of the stack to a new task until they hold half of the pending transactions,
+         * always leaving at least one subtree to this task, and forks the new task
+         */
+        private SubtreeSumTask split() {
+            LongArrayList movedIds = new LongArrayList();
+            long movedSize = 0;
+            while (movedSize < pendingSize / 2 && pendingIds.size() > 1) {
+                long transactionId = pendingIds.removeLast();
+                movedIds.add(transactionId);
+                movedSize += nodes.get(transactionId).subtreeSize.get();
+            }
+            pendingSize -= movedSize;
+            SubtreeSumTask task = new SubtreeSumTask(movedIds, movedSize);
+            task.fork();
+            return task;
+        }
+    }
+
+    /**
+     * Entry of the type index, holding the interned type shared by all the transactions of the type, their ids,
+     * kept sorted, and the statistics of their amounts
+     */
+    private static class TypeIndex {
+        private final TransactionType type;
+        private final LongArrayList transactionIds = new LongArrayList();
+        private final TypeStatsAccumulator stats = new TypeStatsAccumulator();
+
+        private TypeIndex(TransactionType type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * A transaction read from the log before its parent, waiting for the parent to be read
+     */
+    private static class WaitingRecord {
+        private final long id;
+        private final long amount;
+        private final TypeIndex typeIndex;
+
+        private WaitingRecord(long id, long amount, TypeIndex typeIndex) {
+            this.id = id;
+            this.amount = amount;
+            this.typeIndex = typeIndex;
+        }
+    }
+
+    /**
+     * Entry of the id index, holding a transaction together with the root of its tree, the ids of its children and the
+     * total and size of its subtree. The total is updated with compare-and-set so concurrent inserts under
+     * the same ancestor never lose an update. The size is only counted once the transaction is inserted, it is used
+     * to split the parallel sums. When the transaction log is enabled, the node also records its row in the snapshot
+     * being written.
+     */
+    private static class Node {
+        private final Transaction transaction;
+        private final Node parent;
+        private final Node root;
+        private final LongArrayList childrenIds = new LongArrayList(1);
+        private final AtomicLong subtreeTotal;
+        private final AtomicLong subtreeSize = new AtomicLong(1);
+        private int snapshotRow;
+
+        private Node(Transaction transaction, Node parent) {
+            this.transaction = transaction;
+            this.parent = parent;
+            this.root = parent == null ? this : parent.root;
+            this.subtreeTotal = new AtomicLong(transaction.getMinorUnits());
+        }
+
+        /**
+         * Adds an amount to the subtree total with compare-and-set, unless the total would overflow
+         *
+         * @param amount the amount in minor units
+         * @throws InvalidTransactionAmount if the total would not fit into a long anymore
+         */
+        private void addToSubtreeTotal(long amount) throws InvalidTransactionAmount {
+            long total;
+            long newTotal;
+            do {
+                total = subtreeTotal.get();
+                newTotal = MinorUnits.add(total, amount);
+            } while (!subtreeTotal.compareAndSet(total, newTotal));
+        }
+    }
+}
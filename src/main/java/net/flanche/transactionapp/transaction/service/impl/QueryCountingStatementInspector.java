@@ -0,0 +1,23 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+import net.flanche.transactionapp.metrics.QueryCounter;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Reports every SQL statement hibernate prepares to the QueryCounter, so the metrics can count the queries of the
+ * jpa store without depending on hibernate. Hibernate instantiates the class itself from the
+ * hibernate.session_factory.statement_inspector property.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class QueryCountingStatementInspector implements StatementInspector {
+
+    /**
+     * Counts the statement and returns it unchanged
+     */
+    @Override
+    public String inspect(String sql) {
+        QueryCounter.increment();
+        return sql;
+    }
+}
@@ -0,0 +1,26 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+/**
+ * The ways the JPA backed TransactionServiceImpl can compute the sum of a transaction tree,
+ * selected with the transaction.sum-strategy property
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public enum SumStrategy {
+    /**
+     * Reads the subtree total maintained on every insert, a single primary key lookup
+     */
+    MATERIALIZED,
+    /**
+     * Sums the subtree in the database with a recursive common table expression over the parent links
+     */
+    RECURSIVE,
+    /**
+     * Sums the subtree in the database with a range scan on the materialized path index
+     */
+    PATH,
+    /**
+     * Loads the subtree into the JVM one level at a time with a query per transaction and sums it in Java
+     */
+    TRAVERSAL
+}
@@ -1,38 +1,179 @@
 package net.flanche.transactionapp.transaction.service.impl;
 
+import net.flanche.transactionapp.collections.ConcurrentBloomFilter;
+import net.flanche.transactionapp.collections.ConcurrentLruCache;
+import net.flanche.transactionapp.collections.PagedLongIterator;
+import net.flanche.transactionapp.concurrent.StripedLock;
+import net.flanche.transactionapp.metrics.Histogram;
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import net.flanche.transactionapp.transaction.domain.SubtreeTotal;
+import net.flanche.transactionapp.transaction.domain.SubtreeTotalRepository;
 import net.flanche.transactionapp.transaction.domain.Transaction;
 import net.flanche.transactionapp.transaction.domain.TransactionRepository;
+import net.flanche.transactionapp.transaction.domain.TransactionType;
+import net.flanche.transactionapp.transaction.domain.TransactionTypeRepository;
 import net.flanche.transactionapp.transaction.service.*;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 import java.math.BigDecimal;
-import java.util.List;
-import java.util.Optional;
-import java.util.Stack;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
- * Implementation of the TransactionService interface
+ * Implementation of the TransactionService interface backed by a JPA repository.
+ * This is the default backend, selected when transaction.store is missing or set to jpa
+ * <p>
+ * The ids of all the saved transactions are kept in a ConcurrentBloomFilter sized for transaction.id-filter.expected-ids
+ * ids, rebuilt from the database on startup. Almost every saved id is fresh, and the filter tells most fresh ids
+ * apart without the lookup checking for a duplicate; the ids it may contain are still looked up. The lookups skipped
+ * and the false positives are counted as transaction.id-filter.skipped and transaction.id-filter.false-positives.
+ * </p>
+ * <p>
+ * The hit, miss and put counts of the hibernate second-level and query caches are published as
+ * transaction.hibernate.* gauges, and the statements hibernate prepares are counted by the
+ * QueryCountingStatementInspector.
+ * </p>
  *
  * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
  */
 @Service
+@ConditionalOnProperty(name = "transaction.store", havingValue = "jpa", matchIfMissing = true)
 public class TransactionServiceImpl implements TransactionService {
+    private static final int LOCK_STRIPES = 256;
+    private static final int CACHE_CONCURRENCY_LEVEL = 64;
 
     private final TransactionRepository transactionRepository;
+    private final SubtreeTotalRepository subtreeTotalRepository;
+    private final TransactionTypeDictionary typeDictionary;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int pageSize;
+    private final SumStrategy sumStrategy;
+    private final MinorUnits minorUnits;
+    private final StripedLock transactionLocks = new StripedLock(LOCK_STRIPES);
+    private final ConcurrentLruCache<Transaction> transactionCache;
+    private final ConcurrentBloomFilter idFilter;
+    private final LongAdder idFilterSkipped;
+    private final LongAdder idFilterFalsePositives;
+    private final ConcurrentMap<String, TypeStatsAccumulator> typeStats = new ConcurrentHashMap<>();
+    private final Histogram sumNodes;
+    private final Histogram sumDepth;
+    private final TransactionMetrics transactionMetrics;
+    @PersistenceContext
+    private EntityManager entityManager;
 
     @Autowired
-    public TransactionServiceImpl(TransactionRepository transactionRepository) {
+    public TransactionServiceImpl(TransactionRepository transactionRepository, SubtreeTotalRepository subtreeTotalRepository,
+                                  TransactionTypeRepository transactionTypeRepository, PlatformTransactionManager transactionManager,
+                                  @Value("${transaction.batch-size:500}") int batchSize,
+                                  @Value("${transaction.page-size:1000}") int pageSize,
+                                  @Value("${transaction.sum-strategy:MATERIALIZED}") SumStrategy sumStrategy,
+                                  @Value("${transaction.cache-size:10000}") int cacheSize,
+                                  @Value("${transaction.amount-scale:2}") int amountScale,
+                                  @Value("${transaction.id-filter.expected-ids:1000000}") long idFilterExpectedIds,
+                                  @Value("${transaction.id-filter.false-positive-probability:0.01}") double idFilterFalsePositiveProbability,
+                                  TransactionMetrics transactionMetrics) {
         this.transactionRepository = transactionRepository;
+        this.subtreeTotalRepository = subtreeTotalRepository;
+        this.typeDictionary = new TransactionTypeDictionary(transactionTypeRepository, transactionManager);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.pageSize = pageSize;
+        this.sumStrategy = sumStrategy;
+        this.minorUnits = new MinorUnits(amountScale);
+        this.transactionMetrics = transactionMetrics;
+        this.transactionCache = new ConcurrentLruCache<>(cacheSize, CACHE_CONCURRENCY_LEVEL);
+        this.sumNodes = transactionMetrics.histogram("transaction.sum.nodes");
+        this.sumDepth = transactionMetrics.histogram("transaction.sum.depth");
+        transactionMetrics.gauge("transaction.cache.hits", transactionCache::getHitCount);
+        transactionMetrics.gauge("transaction.cache.misses", transactionCache::getMissCount);
+        transactionMetrics.gauge("transaction.cache.evictions", transactionCache::getEvictionCount);
+        transactionMetrics.gauge("transaction.cache.size", transactionCache::size);
+        this.idFilter = new ConcurrentBloomFilter(idFilterExpectedIds, idFilterFalsePositiveProbability);
+        this.idFilterSkipped = transactionMetrics.counter("transaction.id-filter.skipped");
+        this.idFilterFalsePositives = transactionMetrics.counter("transaction.id-filter.false-positives");
+        transactionMetrics.gauge("transaction.id-filter.false-positive-rate-ppm", this::getIdFilterFalsePositiveRatePpm);
+        loadTypeStats();
+        loadIdFilter();
+    }
+
+    /**
+     * Empties the hibernate second-level and query caches and publishes their statistics, which are only counted when
+     * hibernate.generate_statistics is set. The cache is shared by all the session factories of the JVM, so entries
+     * left by a previous application context, whose database was dropped since, must not be served.
+     */
+    @PostConstruct
+    public void initSecondLevelCache() {
+        SessionFactory sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class);
+        entityManager.getEntityManagerFactory().getCache().evictAll();
+        sessionFactory.getCache().evictQueryRegions();
+        Statistics statistics = sessionFactory.getStatistics();
+        transactionMetrics.gauge("transaction.hibernate.second-level-cache.hits", statistics::getSecondLevelCacheHitCount);
+        transactionMetrics.gauge("transaction.hibernate.second-level-cache.misses", statistics::getSecondLevelCacheMissCount);
+        transactionMetrics.gauge("transaction.hibernate.second-level-cache.puts", statistics::getSecondLevelCachePutCount);
+        transactionMetrics.gauge("transaction.hibernate.query-cache.hits", statistics::getQueryCacheHitCount);
+        transactionMetrics.gauge("transaction.hibernate.query-cache.misses", statistics::getQueryCacheMissCount);
+        transactionMetrics.gauge("transaction.hibernate.query-cache.puts", statistics::getQueryCachePutCount);
     }
 
     /**
      * Complexity with current implementation is O(1) as primary keys will use a hash index in most database.
-     * With a non-jpa approach we would keep a repository with a HashMap container that would give us a similar complexity
+     * With a non-jpa approach we would keep a repository with a HashMap container that would give us a similar complexity.
+     * Transactions never change once saved, so the ones found are kept in a bounded LRU cache of transaction.cache-size
+     * entries and repeated lookups do not reach the database. Missing ids are not cached as they can be saved later.
      */
     @Override
     public Optional<Transaction> getTransactionById(long id) {
-        return Optional.ofNullable(transactionRepository.findOne(id));
+        return Optional.ofNullable(transactionCache.get(id, transactionRepository::findOne));
+    }
+
+    /**
+     * Getter for the transactionCache attribute
+     *
+     * @return the cache of the transactions looked up by id, exposing its hit, miss and eviction counts
+     */
+    public ConcurrentLruCache<Transaction> getTransactionCache() {
+        return transactionCache;
+    }
+
+    /**
+     * Complexity is O(n) for n ids, read with one IN query for each chunk of transaction.batch-size ids, each query
+     * being a multi-get on the primary key index. The lookups bypass the transaction cache, which only serves single
+     * lookups.
+     */
+    @Override
+    public List<Transaction> getTransactionsByIds(List<Long> ids) {
+        Map<Long, Transaction> transactions = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            transactionRepository.findAll(new HashSet<>(ids.subList(from, Math.min(from + batchSize, ids.size()))))
+                    .forEach(transaction -> transactions.put(transaction.getId(), transaction));
+        }
+        return ids.stream()
+                .map(transactions::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -40,47 +181,527 @@ public class TransactionServiceImpl implements TransactionService {
      * A hash index would be indicated here as we always check for equality giving us a O(1) complexity.
      * With a non-jpa approach we would again get O(n) in the naive approach. Alternatively we could keep one
      * more HashMap container with the key being type in addition to our id one. This would again get us to O(1).
+     * The type is resolved to its int id once, from the in-memory type dictionary, and the query compares ints.
      */
     @Override
     public List<Transaction> getTransactionsOfType(String type) throws InvalidTransactionType {
         if (type == null || type.equals("")) {
             throw new InvalidTransactionType();
         }
-        return transactionRepository.findByType(type);
+        Optional<TransactionType> transactionType = typeDictionary.find(type);
+        if (!transactionType.isPresent()) {
+            return new ArrayList<>();
+        }
+        return transactionRepository.findByType(transactionType.get());
     }
 
     /**
-     * @see TransactionServiceImpl::sumOfTransactionTree discussion for complexity
+     * Complexity is O(k) for k matching transactions, paid one page of transaction.page-size ids at a time.
+     * Only the ids are selected, so no entity or parent is loaded, and each page starts after the last id of the
+     * previous one, so no query has to skip over the earlier pages.
+     */
+    @Override
+    public LongStream streamTransactionIdsOfType(String type) throws InvalidTransactionType {
+        if (type == null || type.equals("")) {
+            throw new InvalidTransactionType();
+        }
+        Optional<TransactionType> transactionType = typeDictionary.find(type);
+        if (!transactionType.isPresent()) {
+            return LongStream.empty();
+        }
+        return new PagedLongIterator() {
+            private long lastId = Long.MIN_VALUE;
+
+            @Override
+            protected long[] nextPage() {
+                List<Long> ids = transactionRepository.findIdsByType(transactionType.get(), lastId, new PageRequest(0, pageSize));
+                if (!ids.isEmpty()) {
+                    lastId = ids.get(ids.size() - 1);
+                }
+                return ids.stream().mapToLong(Long::longValue).toArray();
+            }
+        }.stream();
+    }
+
+    /**
+     * Complexity is O(log(n)) to find where the page starts in the (type, id) index plus O(p) for the p rows scanned
+     * to fill the page, p being the page size when no amount range is given. The page starts after the last id of
+     * the previous one instead of using an offset, so deep pages are as cheap as the first one.
+     */
+    @Override
+    public TransactionIdPage getTransactionIdsOfType(String type, TransactionFilter filter, OptionalLong afterId, int limit) throws InvalidTransactionType {
+        if (type == null || type.equals("")) {
+            throw new InvalidTransactionType();
+        }
+        Optional<TransactionType> transactionType = typeDictionary.find(type);
+        if (!transactionType.isPresent()) {
+            return new TransactionIdPage(new long[0], false);
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<Transaction> transaction = query.from(Transaction.class);
+        Path<Long> id = transaction.get("id");
+        Path<Long> amount = transaction.get("amount");
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(criteriaBuilder.equal(transaction.get("type"), transactionType.get()));
+        afterId.ifPresent(after -> predicates.add(criteriaBuilder.gt(id, after)));
+        filter.getMinId().ifPresent(minId -> predicates.add(criteriaBuilder.ge(id, minId)));
+        filter.getMaxId().ifPresent(maxId -> predicates.add(criteriaBuilder.le(id, maxId)));
+        filter.getMinAmount().ifPresent(minAmount -> predicates.add(criteriaBuilder.ge(amount, minorUnits.ceilToMinorUnits(minAmount))));
+        filter.getMaxAmount().ifPresent(maxAmount -> predicates.add(criteriaBuilder.le(amount, minorUnits.floorToMinorUnits(maxAmount))));
+        query.select(id).where(predicates.toArray(new Predicate[predicates.size()])).orderBy(criteriaBuilder.asc(id));
+
+        // one more id than requested tells if there is a next page
+        List<Long> ids = entityManager.createQuery(query).setMaxResults(limit + 1).getResultList();
+        return new TransactionIdPage(ids.stream().limit(limit).mapToLong(Long::longValue).toArray(), ids.size() > limit);
+    }
+
+    /**
+     * Complexity is O(1) as the statistics of every type are kept in memory and updated after each save commits.
+     * They are seeded from the database on startup, so they only miss the transactions saved by other application
+     * instances sharing the database since then.
+     */
+    @Override
+    public Optional<TransactionTypeStats> getTypeStats(String type) throws InvalidTransactionType {
+        if (type == null || type.equals("")) {
+            throw new InvalidTransactionType();
+        }
+        TypeStatsAccumulator stats = typeStats.get(type);
+        return stats == null ? Optional.empty() : stats.toStats(type, minorUnits);
+    }
+
+    /**
+     * Complexity is O(t * log(t)) for t types, reading the statistics of each type and sorting them
+     */
+    @Override
+    public List<TransactionTypeStats> getAllTypeStats() {
+        List<TransactionTypeStats> result = new ArrayList<>(typeStats.size());
+        typeStats.forEach((type, stats) -> stats.toStats(type, minorUnits).ifPresent(result::add));
+        result.sort(Comparator.comparing(TransactionTypeStats::getType));
+        return result;
+    }
+
+    /**
+     * The complexity depends on the configured SumStrategy. With the default MATERIALIZED strategy it is O(1) as the
+     * total of each subtree is maintained on insert and we only read it by primary key. RECURSIVE and PATH are O(n)
+     * for a subtree of n transactions but run as one query inside the database, while TRAVERSAL costs a query per
+     * transaction, see sumOfTransactionTree. Every strategy sums minor units, the sum only becoming a BigDecimal
+     * when it is returned.
+     *
+     * @see TransactionServiceImpl::saveTransaction for how the totals are maintained
      */
     @Override
     public BigDecimal getTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        Optional<Long> sum;
+        switch (sumStrategy) {
+            case RECURSIVE:
+                sum = Optional.ofNullable(transactionRepository.sumSubtreeRecursively(transactionId)).map(Number::longValue);
+                break;
+            case PATH:
+                sum = getTransactionById(transactionId)
+                        .map(transaction -> transactionRepository.sumSubtreeByPath(transaction.getPath() + "%"));
+                break;
+            case TRAVERSAL:
+                sum = getTransactionById(transactionId).map(this::sumOfTransactionTree);
+                break;
+            default:
+                sum = Optional.ofNullable(subtreeTotalRepository.findOne(transactionId)).map(SubtreeTotal::getAmount);
+        }
+        if (!sum.isPresent()) {
+            throw new InvalidTransactionId();
+        }
+        return minorUnits.toAmount(sum.get());
+    }
+
+    /**
+     * @see TransactionServiceImpl::sumOfTransactionTree discussion for complexity
+     */
+    @Override
+    public boolean checkTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
         Optional<Transaction> transaction = Optional.ofNullable(transactionRepository.findOne(transactionId));
         if (!transaction.isPresent()) {
             throw new InvalidTransactionId();
         }
-        return sumOfTransactionTree(transaction.get());
+        return sumOfTransactionTree(transaction.get()) == subtreeTotalRepository.findOne(transactionId).getAmount();
     }
 
+    /**
+     * Complexity is O(log(n)) to find the subtree in the path index plus O(k) for the k returned transactions.
+     * All the descendants share the path of the transaction as a prefix, so they are read with a single range query.
+     */
+    @Override
+    public List<Transaction> getTransactionTree(long transactionId, int maxDepth) throws InvalidTransactionId {
+        Optional<Transaction> transaction = getTransactionById(transactionId);
+        if (!transaction.isPresent()) {
+            throw new InvalidTransactionId();
+        }
+        int depthLimit = (int) Math.min(Integer.MAX_VALUE, (long) transaction.get().getDepth() + maxDepth);
+        return transactionRepository.findSubtree(transaction.get().getPath() + "%", depthLimit);
+    }
+
+    /**
+     * This is a O(1) operation no matter our approach. The type is interned in the type dictionary, which only
+     * costs an insert the first time the type is used.
+     */
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        long amountInMinorUnits = minorUnits.toMinorUnits(amount);
+        Lock lock = transactionLocks.get(transactionId);
+        lock.lock();
+        try {
+            checkTransactionValidity(transactionId, type);
+            Transaction transaction = new Transaction(transactionId, amountInMinorUnits, minorUnits.getScale(), typeDictionary.intern(type));
+            persist(transaction);
+            return transaction;
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
-     * This is a O(1) operation no matter our approach
+     * Complexity is O(d) where d is the depth of the new transaction, as the amount is added to the subtree total
+     * of every ancestor. The ancestor ids are read from the path of the parent, so this costs a single update statement.
+     * The transaction is rejected if its amount would overflow the total of an ancestor.
      */
     @Override
-    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType {
-        checkTransactionValidity(transactionId, type);
-        Transaction transaction = new Transaction(transactionId, amount, type);
-        return transactionRepository.save(transaction);
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        long amountInMinorUnits = minorUnits.toMinorUnits(amount);
+        Lock lock = transactionLocks.get(transactionId);
+        lock.lock();
+        try {
+            checkTransactionValidity(transactionId, type);
+            Optional<Transaction> parentTransaction = getTransactionById(parentTransactionId);
+            if (!parentTransaction.isPresent()) {
+                throw new InvalidParentTransaction();
+            }
+            Transaction transaction = new Transaction(transactionId, amountInMinorUnits, minorUnits.getScale(), typeDictionary.intern(type), parentTransaction.get());
+            persist(transaction);
+            return transaction;
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * Complexity is O(n * d) for n transactions of depth d, but the database work for each chunk of transaction.batch-size
+     * transactions is constant: one query for the ids already in use, one for the parents saved before the batch,
+     * JDBC batched inserts and one update for each distinct amount added to the ancestors saved before the batch.
+     * Types used for the first time also cost an insert each into the type dictionary.
+     */
     @Override
-    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType {
-        checkTransactionValidity(transactionId, type);
-        Optional<Transaction> parentTransaction = getTransactionById(parentTransactionId);
-        if (!parentTransaction.isPresent()) {
-            throw new InvalidParentTransaction();
+    public List<SaveStatus> saveTransactions(List<TransactionRecord> transactions) {
+        List<SaveStatus> result = new ArrayList<>(transactions.size());
+        for (int from = 0; from < transactions.size(); from += batchSize) {
+            result.addAll(saveChunk(transactions.subList(from, Math.min(from + batchSize, transactions.size()))));
         }
-        Transaction transaction = new Transaction(transactionId, amount, type, parentTransaction.get());
-        return transactionRepository.save(transaction);
+        return result;
+    }
+
+    /**
+     * Validates and saves a chunk of a batch while holding the locks of all its ids, so the chunk is atomic with
+     * respect to concurrent saves of the same ids just like saveTransaction
+     */
+    private List<SaveStatus> saveChunk(List<TransactionRecord> records) {
+        List<Lock> locks = transactionLocks.getAll(records.stream().mapToLong(TransactionRecord::getId).toArray());
+        locks.forEach(Lock::lock);
+        try {
+            Set<Long> ids = records.stream().map(TransactionRecord::getId).collect(Collectors.toSet());
+            Set<Long> possibleIds = ids.stream().filter(idFilter::mightContain).collect(Collectors.toSet());
+            Set<Long> existingIds = possibleIds.isEmpty() ? new HashSet<>() : new HashSet<>(transactionRepository.findExistingIds(possibleIds));
+            recordIdFilterChecks(ids.size() - possibleIds.size(), possibleIds.size() - existingIds.size());
+            Map<Long, Transaction> existingParents = new HashMap<>();
+            transactionRepository.findAll(records.stream()
+                    .map(TransactionRecord::getParentId)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .collect(Collectors.toSet()))
+                    .forEach(parent -> existingParents.put(parent.getId(), parent));
+
+            List<SaveStatus> result = new ArrayList<>(records.size());
+            Map<Long, Transaction> acceptedTransactions = new LinkedHashMap<>();
+            Map<Long, Long> acceptedTotals = new HashMap<>();
+            Map<Long, Long> existingAncestorDeltas = new HashMap<>();
+            for (TransactionRecord record : records) {
+                // checked in the order of saveTransaction: amount, id, type and parent
+                long amount;
+                try {
+                    amount = minorUnits.toMinorUnits(record.getAmount());
+                } catch (InvalidTransactionAmount e) {
+                    result.add(SaveStatus.INVALID_AMOUNT);
+                    continue;
+                }
+                if (existingIds.contains(record.getId()) || acceptedTransactions.containsKey(record.getId())) {
+                    result.add(SaveStatus.DUPLICATE);
+                    continue;
+                }
+                if (record.getType() == null || record.getType().equals("")) {
+                    result.add(SaveStatus.INVALID_TYPE);
+                    continue;
+                }
+                TransactionType transactionType = typeDictionary.intern(record.getType());
+                Transaction transaction;
+                if (record.getParentId().isPresent()) {
+                    long parentId = record.getParentId().get();
+                    Transaction parentTransaction = acceptedTransactions.getOrDefault(parentId, existingParents.get(parentId));
+                    if (parentTransaction == null) {
+                        result.add(SaveStatus.INVALID_PARENT);
+                        continue;
+                    }
+                    transaction = new Transaction(record.getId(), amount, minorUnits.getScale(), transactionType, parentTransaction);
+                } else {
+                    transaction = new Transaction(record.getId(), amount, minorUnits.getScale(), transactionType);
+                }
+                // the new totals are all computed before any is stored, so a rejected amount leaves no trace
+                List<Long> ancestorIds = getAncestorIds(transaction);
+                long[] ancestorTotals = new long[ancestorIds.size()];
+                try {
+                    for (int i = 0; i < ancestorTotals.length; i++) {
+                        Map<Long, Long> totals = acceptedTotals.containsKey(ancestorIds.get(i)) ? acceptedTotals : existingAncestorDeltas;
+                        ancestorTotals[i] = MinorUnits.add(totals.getOrDefault(ancestorIds.get(i), 0L), amount);
+                    }
+                } catch (InvalidTransactionAmount e) {
+                    result.add(SaveStatus.INVALID_AMOUNT);
+                    continue;
+                }
+                acceptedTransactions.put(transaction.getId(), transaction);
+                acceptedTotals.put(transaction.getId(), amount);
+                for (int i = 0; i < ancestorTotals.length; i++) {
+                    if (acceptedTotals.containsKey(ancestorIds.get(i))) {
+                        acceptedTotals.put(ancestorIds.get(i), ancestorTotals[i]);
+                    } else {
+                        existingAncestorDeltas.put(ancestorIds.get(i), ancestorTotals[i]);
+                    }
+                }
+                result.add(SaveStatus.SAVED);
+            }
+
+            try {
+                if (!persistAll(acceptedTransactions.values(), acceptedTotals, existingAncestorDeltas)) {
+                    // the deltas would overflow the total of an ancestor saved before the chunk, save one by one
+                    // to find out which transactions to reject
+                    return TransactionService.super.saveTransactions(records);
+                }
+            } catch (DataIntegrityViolationException e) {
+                // another application instance took one of the ids meanwhile, save one by one to find out which
+                return TransactionService.super.saveTransactions(records);
+            }
+            acceptedTransactions.keySet().forEach(idFilter::add);
+            acceptedTransactions.values().forEach(this::addToTypeStats);
+            return result;
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * Inserts the accepted transactions of a chunk with their final subtree totals and applies the accumulated
+     * deltas to the ancestors saved before the chunk, all in one database transaction. The inserts are grouped
+     * into JDBC batches by Hibernate, see hibernate.jdbc.batch_size.
+     *
+     * @return true if the chunk was saved, false if it was rolled back as a delta would overflow a total
+     */
+    private boolean persistAll(Collection<Transaction> transactions, Map<Long, Long> subtreeTotals, Map<Long, Long> ancestorDeltas) {
+        if (transactions.isEmpty()) {
+            return true;
+        }
+        return transactionTemplate.execute(status -> {
+            for (Transaction transaction : transactions) {
+                entityManager.persist(transaction);
+                entityManager.persist(new SubtreeTotal(transaction.getId(), subtreeTotals.get(transaction.getId())));
+            }
+            Map<Long, List<Long>> ancestorIdsByDelta = ancestorDeltas.entrySet().stream()
+                    .collect(Collectors.groupingBy(Map.Entry::getValue, Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+            for (Map.Entry<Long, List<Long>> ancestors : ancestorIdsByDelta.entrySet()) {
+                if (!addToTotals(ancestors.getValue(), ancestors.getKey())) {
+                    status.setRollbackOnly();
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Inserts the transaction and its subtree total and updates the totals of its ancestors in one database
+     * transaction. It is called while holding the lock striped on the transaction id and commits before the lock is
+     * released, so checking for a duplicate id and inserting is atomic for concurrent requests. The primary key
+     * constraint still rejects duplicates coming from other application instances, as we persist instead of merging.
+     * Any other constraint violation is not a duplicate, so it is only reported as one if the id is really taken.
+     */
+    private void persist(Transaction transaction) throws DuplicateTransactionException, InvalidTransactionAmount {
+        boolean saved;
+        try {
+            saved = transactionTemplate.execute(status -> {
+                entityManager.persist(transaction);
+                entityManager.persist(new SubtreeTotal(transaction.getId(), transaction.getMinorUnits()));
+                if (!addToTotals(getAncestorIds(transaction), transaction.getMinorUnits())) {
+                    status.setRollbackOnly();
+                    return false;
+                }
+                return true;
+            });
+        } catch (DataIntegrityViolationException e) {
+            if (!transactionRepository.exists(transaction.getId())) {
+                throw e;
+            }
+            // the id was taken by another application instance, the filter has to send later saves to the database
+            idFilter.add(transaction.getId());
+            throw new DuplicateTransactionException(e.getMessage());
+        }
+        if (!saved) {
+            throw new InvalidTransactionAmount();
+        }
+        idFilter.add(transaction.getId());
+        addToTypeStats(transaction);
+    }
+
+    /**
+     * Adds an amount to the subtree totals of the given transactions, unless that would overflow one of them
+     *
+     * @return true if every total was updated, false if the caller has to roll back as a total would overflow
+     */
+    private boolean addToTotals(List<Long> transactionIds, long amount) {
+        if (transactionIds.isEmpty()) {
+            return true;
+        }
+        long minTotal = amount < 0 ? Long.MIN_VALUE - amount : Long.MIN_VALUE;
+        long maxTotal = amount > 0 ? Long.MAX_VALUE - amount : Long.MAX_VALUE;
+        return subtreeTotalRepository.addToAmount(transactionIds, amount, minTotal, maxTotal) == transactionIds.size();
+    }
+
+    /**
+     * Returns a type of the type dictionary, adding it if it is new
+     *
+     * @param type the name of the type
+     * @return the type together with its id
+     */
+    TransactionType internType(String type) {
+        return typeDictionary.intern(type);
+    }
+
+    /**
+     * Reads the subtree totals of the given transactions with a single query
+     *
+     * @param transactionIds the ids of the transactions
+     * @return the subtree total of every transaction found in minor units, by transaction id
+     */
+    Map<Long, Long> getSubtreeTotals(Collection<Long> transactionIds) {
+        Map<Long, Long> totals = new HashMap<>();
+        subtreeTotalRepository.findAll(transactionIds).forEach(total -> totals.put(total.getTransactionId(), total.getAmount()));
+        return totals;
+    }
+
+    /**
+     * Returns which of the given transactions are in the database, with a single query
+     *
+     * @param transactionIds the ids of the transactions
+     * @return the ids of the transactions found
+     */
+    Set<Long> findWrittenIds(Collection<Long> transactionIds) {
+        return new HashSet<>(transactionRepository.findExistingIds(transactionIds));
+    }
+
+    /**
+     * Getter for the minorUnits attribute
+     *
+     * @return the scale the amounts are kept at
+     */
+    MinorUnits getMinorUnits() {
+        return minorUnits;
+    }
+
+    /**
+     * Adds the amount of a committed transaction to the statistics of its type
+     */
+    private void addToTypeStats(Transaction transaction) {
+        typeStats.computeIfAbsent(transaction.getType(), type -> new TypeStatsAccumulator()).add(transaction.getMinorUnits());
+    }
+
+    /**
+     * Returns whether a transaction id is in use. The id filter answers most fresh ids without reaching the database,
+     * only the ids it may contain are looked up.
+     *
+     * @param transactionId the id to look for
+     * @return true if a transaction with the id was saved
+     */
+    boolean isTransactionIdInUse(long transactionId) {
+        if (!idFilter.mightContain(transactionId)) {
+            recordIdFilterChecks(1, 0);
+            return false;
+        }
+        if (getTransactionById(transactionId).isPresent()) {
+            return true;
+        }
+        recordIdFilterChecks(0, 1);
+        return false;
+    }
+
+    /**
+     * Counts the lookups the id filter saved and the ones it caused for ids that were not in use, unless the filter
+     * is disabled
+     */
+    private void recordIdFilterChecks(long skipped, long falsePositives) {
+        if (idFilter.getBitCount() > 0) {
+            idFilterSkipped.add(skipped);
+            idFilterFalsePositives.add(falsePositives);
+        }
+    }
+
+    /**
+     * Returns the share of the fresh ids the id filter could not tell apart from ids in use, in parts per million
+     */
+    private long getIdFilterFalsePositiveRatePpm() {
+        long falsePositives = idFilterFalsePositives.sum();
+        long freshIds = idFilterSkipped.sum() + falsePositives;
+        return freshIds == 0 ? 0 : falsePositives * 1_000_000 / freshIds;
+    }
+
+    /**
+     * Adds the ids of all the transactions in the database to the id filter, one page of transaction.page-size ids
+     * at a time
+     */
+    private void loadIdFilter() {
+        if (idFilter.getBitCount() == 0) {
+            return;
+        }
+        new PagedLongIterator() {
+            private long lastId = Long.MIN_VALUE;
+
+            @Override
+            protected long[] nextPage() {
+                List<Long> ids = transactionRepository.findIdsAfter(lastId, new PageRequest(0, pageSize));
+                if (!ids.isEmpty()) {
+                    lastId = ids.get(ids.size() - 1);
+                }
+                return ids.stream().mapToLong(Long::longValue).toArray();
+            }
+        }.stream().forEach(idFilter::add);
+    }
+
+    /**
+     * Seeds the statistics of every type with a single aggregate query over the transactions already in the database
+     */
+    private void loadTypeStats() {
+        for (Object[] row : transactionRepository.aggregateAmountsByType()) {
+            typeStats.computeIfAbsent((String) row[0], type -> new TypeStatsAccumulator()).add(((Number) row[1]).longValue(),
+                    new BigDecimal(row[2].toString()).toBigIntegerExact(), ((Number) row[3]).longValue(), ((Number) row[4]).longValue());
+        }
+    }
+
+    /**
+     * Returns the ids of all the ancestors of a transaction, read from the materialized path of its parent
+     * so no ancestor has to be loaded
+     */
+    private List<Long> getAncestorIds(Transaction transaction) {
+        List<Long> ancestorIds = new ArrayList<>();
+        if (transaction.getParentTransaction().isPresent()) {
+            for (String ancestorId : transaction.getParentTransaction().get().getPath().split("/")) {
+                if (!ancestorId.isEmpty()) {
+                    ancestorIds.add(Long.parseLong(ancestorId));
+                }
+            }
+        }
+        return ancestorIds;
     }
 
     /**
@@ -88,7 +709,7 @@ public class TransactionServiceImpl implements TransactionService {
      * type is valid (non-null, non-empty)
      */
     private void checkTransactionValidity(long transactionId, String type) throws DuplicateTransactionException, InvalidTransactionType {
-        if (transactionRepository.findOne(transactionId) != null) {
+        if (isTransactionIdInUse(transactionId)) {
             throw new DuplicateTransactionException();
         }
         if (type == null || type.equals("")) {
@@ -99,7 +720,8 @@ public class TransactionServiceImpl implements TransactionService {
 
     /**
      * <p>
-     * Returns the sum of all transactions linked transitively through a is-child relationship to this transaction
+     * Returns the sum of all transactions linked transitively through a is-child relationship to this transaction.
+     * This is used by the TRAVERSAL strategy and to recompute the materialized totals when checking their consistency.
      * The function simulates a depth-first-search through the tree of children thus having a complexity of O(n) * P
      * P is the complexity of retrieving the children of the current node. In our case, as we use JPA to handle this for us
      * the complexity would depend on the index in the table (e.g. using a Hash index would give us a O(1) complexity,
@@ -111,19 +733,32 @@ public class TransactionServiceImpl implements TransactionService {
      * I found the JPA approach a bit more elegant and in the spirit of the Spring Framework that I used for the rest
      * of the application.
      * </p>
+     * <p>
+     * Every traversal records the number of transactions it visited as transaction.sum.nodes and the number of
+     * levels below the root it reached as transaction.sum.depth, each visited transaction costing one query.
+     * The minor units are summed with plain long additions: the total of every subtree is kept within the range
+     * of a long on insert, so even if a partial sum wraps around the final one is exact. The transactions to visit are
+     * kept on an unsynchronized ArrayDeque, the traversal being confined to the calling thread.
+     * </p>
      *
      * @param transaction the transaction to calculate the sum for
-     * @return the sum of the transaction tree
+     * @return the sum of the transaction tree in minor units
      */
-    private BigDecimal sumOfTransactionTree(Transaction transaction) {
-        BigDecimal sum = transaction.getAmount();
-        Stack<Transaction> transactionsToProcess = new Stack<>();
+    private long sumOfTransactionTree(Transaction transaction) {
+        long sum = transaction.getMinorUnits();
+        long nodes = 1;
+        int maxDepth = transaction.getDepth();
+        Deque<Transaction> transactionsToProcess = new ArrayDeque<>();
         transactionsToProcess.addAll(transactionRepository.findByParentTransaction(transaction));
-        while (!transactionsToProcess.empty()) {
-            Transaction currentTransaction = transactionsToProcess.pop();
-            sum = sum.add(currentTransaction.getAmount());
+        while (!transactionsToProcess.isEmpty()) {
+            Transaction currentTransaction = transactionsToProcess.removeLast();
+            sum += currentTransaction.getMinorUnits();
+            nodes++;
+            maxDepth = Math.max(maxDepth, currentTransaction.getDepth());
             transactionsToProcess.addAll(transactionRepository.findByParentTransaction(currentTransaction));
         }
+        sumNodes.record(nodes);
+        sumDepth.record(maxDepth - transaction.getDepth());
         return sum;
     }
 
@@ -0,0 +1,85 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+import net.flanche.transactionapp.transaction.domain.TransactionType;
+import net.flanche.transactionapp.transaction.domain.TransactionTypeRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the TransactionType dictionary of the jpa store in memory. There are only a few distinct types, so once a
+ * type is looked up it is resolved without a query, and every transaction saved with it shares the same instance.
+ * A new type is inserted in a database transaction of its own, committed before any transaction refers to it.
+ * Types missing from the dictionary are not cached, as another application instance may add them.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionTypeDictionary {
+    private final TransactionTypeRepository transactionTypeRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ConcurrentMap<String, TransactionType> types = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for the class
+     *
+     * @param transactionTypeRepository the repository of the types
+     * @param transactionManager        the transaction manager used to insert new types
+     */
+    public TransactionTypeDictionary(TransactionTypeRepository transactionTypeRepository, PlatformTransactionManager transactionManager) {
+        this.transactionTypeRepository = transactionTypeRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Returns a type of the dictionary, reading it from the database the first time it is asked for
+     *
+     * @param name the type
+     * @return the type wrapped in an optional or empty if no transaction of the type was ever saved
+     */
+    public Optional<TransactionType> find(String name) {
+        TransactionType type = types.get(name);
+        if (type == null) {
+            type = transactionTypeRepository.findByName(name);
+            if (type != null) {
+                TransactionType cachedType = types.putIfAbsent(name, type);
+                type = cachedType == null ? type : cachedType;
+            }
+        }
+        return Optional.ofNullable(type);
+    }
+
+    /**
+     * Returns a type of the dictionary, adding it if it is new. New types are added one at a time, so two threads
+     * saving the first transactions of a type do not both insert it.
+     *
+     * @param name the type
+     * @return the type together with its id
+     */
+    public TransactionType intern(String name) {
+        Optional<TransactionType> type = find(name);
+        if (type.isPresent()) {
+            return type.get();
+        }
+        synchronized (this) {
+            type = find(name);
+            if (type.isPresent()) {
+                return type.get();
+            }
+            TransactionType newType;
+            try {
+                newType = transactionTemplate.execute(status -> transactionTypeRepository.save(new TransactionType(name)));
+            } catch (DataIntegrityViolationException e) {
+                // another application instance added the type meanwhile
+                newType = transactionTypeRepository.findByName(name);
+            }
+            types.put(name, newType);
+            return newType;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+import net.flanche.transactionapp.transaction.service.MinorUnits;
+import net.flanche.transactionapp.transaction.service.TransactionTypeStats;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maintains the count, total, minimum and maximum amount of the transactions of a type as they are saved.
+ * Every value is a striped LongAdder or LongAccumulator, so concurrent saves of the same type update
+ * different cells instead of contending on a single counter, and reading the values is O(1).
+ * <p>
+ * The total of a type is not bounded like a subtree total, so it is kept as two sums that cannot overflow in
+ * practice: the low 32 bits of every amount, unsigned, and its remaining high bits. Both stay exact for up to
+ * 2^32 transactions of the type and are combined into a BigInteger when read.
+ * </p>
+ * <p>
+ * The values are read without locking, so a read racing with saves may see some of the values of a save but not
+ * the others. The count is updated last and read first, so every counted amount is within the minimum and maximum.
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TypeStatsAccumulator {
+    private static final int LOW_BITS = 32;
+    private static final long LOW_MASK = (1L << LOW_BITS) - 1;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalLow = new LongAdder();
+    private final LongAdder totalHigh = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    /**
+     * Adds the amount of a saved transaction
+     *
+     * @param amount the amount in minor units
+     */
+    public void add(long amount) {
+        totalLow.add(amount & LOW_MASK);
+        totalHigh.add(amount >> LOW_BITS);
+        min.accumulate(amount);
+        max.accumulate(amount);
+        count.increment();
+    }
+
+    /**
+     * Adds the aggregated amounts of transactions saved before the accumulator was created
+     *
+     * @param count the number of transactions
+     * @param total the sum of their amounts in minor units
+     * @param min   the smallest of their amounts in minor units
+     * @param max   the largest of their amounts in minor units
+     */
+    public void add(long count, BigInteger total, long min, long max) {
+        totalLow.add(total.longValue() & LOW_MASK);
+        totalHigh.add(total.shiftRight(LOW_BITS).longValueExact());
+        this.min.accumulate(min);
+        this.max.accumulate(max);
+        this.count.add(count);
+    }
+
+    /**
+     * Reads the statistics of the type
+     *
+     * @param type       the type the accumulator is kept for
+     * @param minorUnits the scale of the amounts
+     * @return the statistics, Empty if no transaction of the type was saved
+     */
+    public Optional<TransactionTypeStats> toStats(String type, MinorUnits minorUnits) {
+        long transactions = count.sum();
+        if (transactions == 0) {
+            return Optional.empty();
+        }
+        BigInteger total = BigInteger.valueOf(totalHigh.sum()).shiftLeft(LOW_BITS)
+                .add(new BigInteger(Long.toUnsignedString(totalLow.sum())));
+        return Optional.of(new TransactionTypeStats(type, transactions, new BigDecimal(total, minorUnits.getScale()),
+                minorUnits.toAmount(min.get()), minorUnits.toAmount(max.get())));
+    }
+}
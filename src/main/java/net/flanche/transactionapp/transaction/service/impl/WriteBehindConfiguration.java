@@ -0,0 +1,56 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Puts the jpa store behind a WriteBehindTransactionService when transaction.write-behind.enabled is set, so saves
+ * are acknowledged once buffered and written to the database in batches. The memory store is left alone, its saves
+ * never reach a database.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@Configuration
+@ConditionalOnProperty(name = "transaction.write-behind.enabled", havingValue = "true")
+public class WriteBehindConfiguration {
+
+    /**
+     * The post processor is static so it is created before the other beans, and ordered so it runs before the one
+     * wrapping the services in a MeteredTransactionService, the metrics then covering the buffered saves
+     */
+    @Bean
+    public static BeanPostProcessor writeBehindTransactionServicePostProcessor(@Value("${transaction.write-behind.capacity:10000}") int capacity,
+                                                                               @Value("${transaction.write-behind.batch-size:500}") int batchSize,
+                                                                               @Value("${transaction.write-behind.flush-interval-ms:10}") long flushIntervalMillis,
+                                                                               ObjectFactory<TransactionMetrics> transactionMetrics) {
+        return new OrderedBeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                return bean;
+            }
+
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof TransactionServiceImpl) {
+                    return new WriteBehindTransactionService((TransactionServiceImpl) bean, capacity, batchSize, flushIntervalMillis,
+                            transactionMetrics.getObject());
+                }
+                return bean;
+            }
+
+            @Override
+            public int getOrder() {
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+        };
+    }
+
+    private interface OrderedBeanPostProcessor extends BeanPostProcessor, Ordered {
+    }
+}
@@ -0,0 +1,588 @@
+package net.flanche.transactionapp.transaction.service.impl;
+
+import net.flanche.transactionapp.concurrent.StripedLock;
+import net.flanche.transactionapp.metrics.Histogram;
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.service.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Decorates the jpa store with write-behind saves, enabled with transaction.write-behind.enabled. A save is validated
+ * like the jpa store does it, put into a bounded ring buffer of transaction.write-behind.capacity transactions and
+ * acknowledged right away, and a single writer thread drains the buffer into the jpa store in batches of
+ * transaction.write-behind.batch-size transactions, or whatever was buffered after
+ * transaction.write-behind.flush-interval-ms milliseconds. A batch costs a single database transaction instead of
+ * one per save. When the buffer is full saves wait for room, so a database that cannot keep up slows the clients
+ * down instead of growing the buffer.
+ * <p>
+ * The buffer only lives in memory: the acknowledged transactions still in the buffer are written on shutdown but lost
+ * if the process dies. A batch the database fails to take stays in the buffer and is written again after a backoff
+ * growing from 100 milliseconds to 10 seconds, counted as transaction.write-behind.retries; meanwhile the buffer fills up
+ * and the saves wait. Only on shutdown the writer gives up after a few more attempts, logging the ids of the
+ * transactions lost and counting them as transaction.write-behind.lost. Lookups by id and subtree sums read the buffered transactions, so they see every acknowledged
+ * save. The sums add the buffered amounts to the totals read from the database, which the writer updates while
+ * holding the drain lock for writing so no amount is counted twice or missed. Every other query first waits until
+ * the transactions buffered so far are written, see flush.
+ * </p>
+ * <p>
+ * Amounts overflowing the total of an ancestor are rejected on save from the totals in the database and the buffered
+ * amounts. The check and the update of the buffered totals are atomic for the saves under the same root, so two saves
+ * cannot overflow a total together and the writer has nothing left to reject. Should it still reject a transaction,
+ * the transaction and its buffered descendants are logged and counted as transaction.write-behind.rejected. The number of buffered
+ * transactions is published as transaction.write-behind.buffered and the size of the written batches as
+ * transaction.write-behind.batch-size.
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class WriteBehindTransactionService implements TransactionService, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindTransactionService.class);
+    private static final int ROOT_LOCK_STRIPES = 256;
+    private static final long RETRY_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long RETRY_MAX_BACKOFF_MILLIS = 10_000;
+    private static final int RETRIES_AFTER_CLOSE = 3;
+
+    private final TransactionServiceImpl delegate;
+    private final MinorUnits minorUnits;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<PendingTransaction> buffer;
+    // the transactions being saved or buffered, by id, removed once written
+    private final ConcurrentMap<Long, PendingTransaction> pendingTransactions = new ConcurrentHashMap<>();
+    // the buffered amounts of the subtree of every transaction, by id
+    private final ConcurrentMap<Long, Long> pendingTotals = new ConcurrentHashMap<>();
+    // held for reading while the totals are read, and for writing while a batch is written
+    private final ReadWriteLock drainLock = new ReentrantReadWriteLock();
+    // held while a transaction is put into the buffer, so the sequence numbers follow the buffer order and no
+    // transaction is put once the service is closed
+    private final Lock bufferLock = new ReentrantLock();
+    // held while the totals of the ancestors are checked and the buffered ones updated, striped on the root id
+    private final StripedLock rootLocks = new StripedLock(ROOT_LOCK_STRIPES);
+    private final Object flushMonitor = new Object();
+    private volatile long bufferedSequence;
+    // guarded by flushMonitor
+    private long writtenSequence;
+    private final Thread writer;
+    // set once no more saves are accepted
+    private volatile boolean closed;
+    // set once every accepted save is in the buffer, the writer stops when it is also empty
+    private volatile boolean stopping;
+    private final LongAdder rejected;
+    private final LongAdder retries;
+    private final LongAdder lost;
+    private final Histogram batchSizes;
+
+    /**
+     * Constructor for the class, starting the writer thread
+     *
+     * @param delegate           the jpa store the transactions are written to
+     * @param capacity           the maximum number of buffered transactions
+     * @param batchSize          the maximum number of transactions written at once
+     * @param flushIntervalMillis the time the writer waits for a batch to fill up
+     * @param transactionMetrics the registry the buffer is measured in
+     */
+    public WriteBehindTransactionService(TransactionServiceImpl delegate, int capacity, int batchSize, long flushIntervalMillis,
+                                         TransactionMetrics transactionMetrics) {
+        this.delegate = delegate;
+        this.minorUnits = delegate.getMinorUnits();
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.rejected = transactionMetrics.counter("transaction.write-behind.rejected");
+        this.retries = transactionMetrics.counter("transaction.write-behind.retries");
+        this.lost = transactionMetrics.counter("transaction.write-behind.lost");
+        this.batchSizes = transactionMetrics.histogram("transaction.write-behind.batch-size");
+        transactionMetrics.gauge("transaction.write-behind.buffered", buffer::size);
+        this.writer = new Thread(this::drain, "transaction-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting saves and waits until the writer has written every buffered transaction
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        // a save that checked closed before it was set is done putting its transaction once the lock is free
+        bufferLock.lock();
+        bufferLock.unlock();
+        stopping = true;
+        writer.join();
+    }
+
+    /**
+     * Waits until every transaction buffered before the call is written to the jpa store
+     */
+    public void flush() {
+        long target = bufferedSequence;
+        synchronized (flushMonitor) {
+            while (writtenSequence < target && writer.isAlive()) {
+                try {
+                    flushMonitor.wait(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Complexity is O(1), buffered transactions are found without reaching the jpa store
+     */
+    @Override
+    public Optional<Transaction> getTransactionById(long id) {
+        PendingTransaction pendingTransaction = pendingTransactions.get(id);
+        if (pendingTransaction != null && pendingTransaction.isBuffered()) {
+            return Optional.of(pendingTransaction.transaction);
+        }
+        return delegate.getTransactionById(id);
+    }
+
+    @Override
+    public List<Transaction> getTransactionsByIds(List<Long> ids) {
+        Map<Long, Transaction> transactions = new HashMap<>();
+        List<Long> writtenIds = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            PendingTransaction pendingTransaction = pendingTransactions.get(id);
+            if (pendingTransaction != null && pendingTransaction.isBuffered()) {
+                transactions.put(id, pendingTransaction.transaction);
+            } else {
+                writtenIds.add(id);
+            }
+        }
+        delegate.getTransactionsByIds(writtenIds).forEach(transaction -> transactions.put(transaction.getId(), transaction));
+        return ids.stream()
+                .map(transactions::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Transaction> getTransactionsOfType(String type) throws InvalidTransactionType {
+        flush();
+        return delegate.getTransactionsOfType(type);
+    }
+
+    @Override
+    public LongStream streamTransactionIdsOfType(String type) throws InvalidTransactionType {
+        flush();
+        return delegate.streamTransactionIdsOfType(type);
+    }
+
+    @Override
+    public TransactionIdPage getTransactionIdsOfType(String type, TransactionFilter filter, OptionalLong afterId, int limit) throws InvalidTransactionType {
+        flush();
+        return delegate.getTransactionIdsOfType(type, filter, afterId, limit);
+    }
+
+    @Override
+    public Optional<TransactionTypeStats> getTypeStats(String type) throws InvalidTransactionType {
+        flush();
+        return delegate.getTypeStats(type);
+    }
+
+    @Override
+    public List<TransactionTypeStats> getAllTypeStats() {
+        flush();
+        return delegate.getAllTypeStats();
+    }
+
+    /**
+     * Same complexity as the jpa store, adding the buffered amounts of the subtree kept in memory. A buffered
+     * transaction has its whole subtree buffered, as its descendants were saved after it.
+     */
+    @Override
+    public BigDecimal getTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        drainLock.readLock().lock();
+        try {
+            BigDecimal pendingTotal = minorUnits.toAmount(pendingTotals.getOrDefault(transactionId, 0L));
+            PendingTransaction pendingTransaction = pendingTransactions.get(transactionId);
+            if (pendingTransaction != null && pendingTransaction.isBuffered()) {
+                return pendingTotal;
+            }
+            return delegate.getTotalAmountOfChildrenTransactions(transactionId).add(pendingTotal);
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean checkTotalAmountOfChildrenTransactions(long transactionId) throws InvalidTransactionId {
+        flush();
+        return delegate.checkTotalAmountOfChildrenTransactions(transactionId);
+    }
+
+    @Override
+    public List<Transaction> getTransactionTree(long transactionId, int maxDepth) throws InvalidTransactionId {
+        flush();
+        return delegate.getTransactionTree(transactionId, maxDepth);
+    }
+
+    /**
+     * Complexity is O(1): a lookup of the id and a put into the buffer, waiting while the buffer is full
+     */
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount) throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        try {
+            return buffer(transactionId, type, amount, null);
+        } catch (InvalidParentTransaction e) {
+            throw new IllegalStateException("A transaction without parent has no invalid parent", e);
+        }
+    }
+
+    /**
+     * Complexity is O(d) where d is the depth of the new transaction, as the totals of its ancestors are checked for
+     * overflow with a single query and the buffered total of every ancestor is updated
+     */
+    @Override
+    public Transaction saveTransaction(long transactionId, String type, BigDecimal amount, long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        return buffer(transactionId, type, amount, parentTransactionId);
+    }
+
+    /**
+     * Validates a transaction in the order of the jpa store and puts it into the buffer. The id is claimed before the
+     * jpa store is asked for it, so of two concurrent saves of an id only one is buffered, and a transaction written
+     * meanwhile is found in the database as it is only released once committed. A parent is only found once it is buffered, so it is always
+     * written before its children.
+     *
+     * @param parentTransactionId the id of the parent transaction or null if the transaction has no parent
+     * @return the buffered transaction
+     */
+    private Transaction buffer(long transactionId, String type, BigDecimal amount, Long parentTransactionId) throws InvalidParentTransaction, DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        // checked again while putting the transaction into the buffer, this only spares the lookups
+        if (closed) {
+            throw new IllegalStateException("The write-behind buffer is closed");
+        }
+        long amountInMinorUnits = minorUnits.toMinorUnits(amount);
+        PendingTransaction pendingTransaction = new PendingTransaction();
+        if (pendingTransactions.putIfAbsent(transactionId, pendingTransaction) != null) {
+            throw new DuplicateTransactionException();
+        }
+        try {
+            if (delegate.isTransactionIdInUse(transactionId)) {
+                throw new DuplicateTransactionException();
+            }
+            if (type == null || type.equals("")) {
+                throw new InvalidTransactionType();
+            }
+            Transaction transaction;
+            if (parentTransactionId != null) {
+                Optional<Transaction> parentTransaction = getTransactionById(parentTransactionId);
+                if (!parentTransaction.isPresent()) {
+                    throw new InvalidParentTransaction();
+                }
+                transaction = new Transaction(transactionId, amountInMinorUnits, minorUnits.getScale(), delegate.internType(type), parentTransaction.get());
+            } else {
+                transaction = new Transaction(transactionId, amountInMinorUnits, minorUnits.getScale(), delegate.internType(type));
+            }
+            pendingTransaction.transaction = transaction;
+            pendingTransaction.subtreeIds = getSubtreeIds(transaction);
+            reserve(pendingTransaction);
+            try {
+                enqueue(pendingTransaction);
+            } catch (InterruptedException e) {
+                addToPendingTotals(pendingTransaction, -transaction.getMinorUnits());
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for room in the write-behind buffer", e);
+            } catch (RuntimeException e) {
+                addToPendingTotals(pendingTransaction, -transaction.getMinorUnits());
+                throw e;
+            }
+            return transaction;
+        } finally {
+            if (!pendingTransaction.isBuffered()) {
+                pendingTransactions.remove(transactionId, pendingTransaction);
+            }
+        }
+    }
+
+    /**
+     * Adds the amount of a transaction to the buffered totals of its subtree once checked that it does not overflow
+     * the total of an ancestor. Both happen under the lock of the root, which all the ancestors share, so a
+     * concurrent save under the same root sees the amount.
+     */
+    private void reserve(PendingTransaction pendingTransaction) throws InvalidTransactionAmount {
+        long[] subtreeIds = pendingTransaction.subtreeIds;
+        if (subtreeIds.length == 1) {
+            addToPendingTotals(pendingTransaction, pendingTransaction.transaction.getMinorUnits());
+            return;
+        }
+        Lock rootLock = rootLocks.get(subtreeIds[0]);
+        rootLock.lock();
+        try {
+            checkAncestorTotals(pendingTransaction);
+            addToPendingTotals(pendingTransaction, pendingTransaction.transaction.getMinorUnits());
+        } finally {
+            rootLock.unlock();
+        }
+    }
+
+    /**
+     * Checks that the amount of a transaction does not overflow the total of an ancestor, the total being read from
+     * the database and the buffered amounts
+     */
+    private void checkAncestorTotals(PendingTransaction pendingTransaction) throws InvalidTransactionAmount {
+        long[] subtreeIds = pendingTransaction.subtreeIds;
+        List<Long> ancestorIds = LongStream.of(subtreeIds).limit(subtreeIds.length - 1).boxed().collect(Collectors.toList());
+        drainLock.readLock().lock();
+        try {
+            Map<Long, Long> totals = delegate.getSubtreeTotals(ancestorIds);
+            for (long ancestorId : ancestorIds) {
+                // the written and buffered amounts add up to the current total, which fits into a long
+                long total = totals.getOrDefault(ancestorId, 0L) + pendingTotals.getOrDefault(ancestorId, 0L);
+                MinorUnits.add(total, pendingTransaction.transaction.getMinorUnits());
+            }
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Puts a transaction into the buffer, waiting while the buffer is full. The service is checked to be open while
+     * holding the buffer lock, which close waits for before letting the writer stop, so a transaction put into the
+     * buffer is always written.
+     *
+     * @throws IllegalStateException if the service is closed
+     */
+    private void enqueue(PendingTransaction pendingTransaction) throws InterruptedException {
+        bufferLock.lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The write-behind buffer is closed");
+            }
+            // numbered before it is put, so the writer never sees a transaction without its sequence number
+            long sequence = bufferedSequence + 1;
+            pendingTransaction.sequence = sequence;
+            try {
+                buffer.put(pendingTransaction);
+            } catch (InterruptedException e) {
+                pendingTransaction.sequence = 0;
+                throw e;
+            }
+            bufferedSequence = sequence;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    private void addToPendingTotals(PendingTransaction pendingTransaction, long amount) {
+        for (long transactionId : pendingTransaction.subtreeIds) {
+            pendingTotals.merge(transactionId, amount, (total, delta) -> total + delta == 0 ? null : total + delta);
+        }
+    }
+
+    /**
+     * Buffers the transactions of a batch one at a time, so each one is validated like a single save
+     */
+    @Override
+    public List<SaveStatus> saveTransactions(List<TransactionRecord> transactions) {
+        return TransactionService.super.saveTransactions(transactions);
+    }
+
+    /**
+     * Body of the writer thread, writing batches until the service is stopping and the buffer is empty
+     */
+    private void drain() {
+        List<PendingTransaction> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                PendingTransaction first = buffer.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    if (stopping && buffer.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    buffer.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingTransaction next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // the writer is never interrupted, it stops once closed
+                continue;
+            }
+            writeWithRetries(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch, writing the transactions the database failed to take again after a growing backoff until they
+     * are all written. Once the service is closed the writer gives up after RETRIES_AFTER_CLOSE more attempts, so
+     * shutting down does not wait for a database that is gone.
+     */
+    private void writeWithRetries(List<PendingTransaction> batch) {
+        List<PendingTransaction> unwritten = write(batch, false);
+        long backoffMillis = RETRY_INITIAL_BACKOFF_MILLIS;
+        int attemptsAfterClose = 0;
+        while (!unwritten.isEmpty()) {
+            if (closed && attemptsAfterClose++ == RETRIES_AFTER_CLOSE) {
+                LOGGER.error("Giving up on {} buffered transactions on shutdown, lost ids: {}", unwritten.size(),
+                        unwritten.stream().map(pendingTransaction -> pendingTransaction.transaction.getId()).collect(Collectors.toList()));
+                lost.add(unwritten.size());
+                drainLock.writeLock().lock();
+                try {
+                    unwritten.forEach(this::release);
+                } finally {
+                    drainLock.writeLock().unlock();
+                }
+                break;
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                // the writer is never interrupted, it stops once closed
+            }
+            backoffMillis = Math.min(backoffMillis * 2, RETRY_MAX_BACKOFF_MILLIS);
+            retries.add(unwritten.size());
+            unwritten = write(unwritten, true);
+        }
+        batchSizes.record(batch.size());
+        synchronized (flushMonitor) {
+            writtenSequence = Math.max(writtenSequence, batch.get(batch.size() - 1).sequence);
+            flushMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Writes a batch to the jpa store with a single saveTransactions call, then releases the written transactions.
+     * Both happen while holding the drain lock for writing, so a sum never sees an amount in the database and in
+     * the buffered totals at the same time. When the call fails the transactions that made it into the database
+     * before the failure are looked up and released, the others stay buffered.
+     *
+     * @param retry whether the transactions were attempted before, a duplicate id then being one written by the
+     *              earlier attempt as the id was claimed when buffered
+     * @return the transactions not written, in the order of the batch
+     */
+    private List<PendingTransaction> write(List<PendingTransaction> batch, boolean retry) {
+        List<TransactionRecord> records = batch.stream()
+                .map(pendingTransaction -> pendingTransaction.transaction)
+                .map(transaction -> new TransactionRecord(transaction.getId(), transaction.getType(), transaction.getAmount(),
+                        transaction.getParentId().orElse(null)))
+                .collect(Collectors.toList());
+        drainLock.writeLock().lock();
+        try {
+            List<SaveStatus> statuses;
+            try {
+                statuses = delegate.saveTransactions(records);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not write {} buffered transactions, they are kept for another attempt", batch.size(), e);
+                statuses = findWritten(records);
+            }
+            List<PendingTransaction> unwritten = new ArrayList<>();
+            Set<Long> rejectedIds = new HashSet<>();
+            for (int i = 0; i < batch.size(); i++) {
+                PendingTransaction pendingTransaction = batch.get(i);
+                SaveStatus status = statuses.get(i);
+                if (status == null) {
+                    unwritten.add(pendingTransaction);
+                    continue;
+                }
+                if (status != SaveStatus.SAVED && !(retry && status == SaveStatus.DUPLICATE)) {
+                    reject(pendingTransaction, status, rejectedIds);
+                }
+                release(pendingTransaction);
+            }
+            return unwritten;
+        } finally {
+            drainLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds out which transactions of a failed saveTransactions call were written anyway, as the jpa store commits
+     * a large batch in several database transactions
+     *
+     * @return SAVED for the transactions found in the database and null for the others, or null for all of them
+     * if the database cannot be read either
+     */
+    private List<SaveStatus> findWritten(List<TransactionRecord> records) {
+        Set<Long> writtenIds;
+        try {
+            writtenIds = delegate.findWrittenIds(records.stream().map(TransactionRecord::getId).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            return Collections.nCopies(records.size(), null);
+        }
+        return records.stream()
+                .map(record -> writtenIds.contains(record.getId()) ? SaveStatus.SAVED : null)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Logs and counts a transaction the jpa store rejected, naming the rejected parent its own rejection comes from
+     *
+     * @param rejectedIds the transactions of the batch rejected so far, the transaction being added to them
+     */
+    private void reject(PendingTransaction pendingTransaction, SaveStatus status, Set<Long> rejectedIds) {
+        Transaction transaction = pendingTransaction.transaction;
+        rejected.increment();
+        rejectedIds.add(transaction.getId());
+        Optional<Long> parentId = transaction.getParentId();
+        if (status == SaveStatus.INVALID_PARENT && parentId.isPresent() && rejectedIds.contains(parentId.get())) {
+            LOGGER.error("Buffered transaction {} was not written as its parent {} was rejected", transaction.getId(), parentId.get());
+        } else {
+            LOGGER.error("Buffered transaction {} was not written: {}", transaction.getId(), status);
+        }
+    }
+
+    /**
+     * Removes a transaction that left the buffer from the pending transactions and its amount from the buffered
+     * totals, called while holding the drain lock for writing
+     */
+    private void release(PendingTransaction pendingTransaction) {
+        addToPendingTotals(pendingTransaction, -pendingTransaction.transaction.getMinorUnits());
+        pendingTransactions.remove(pendingTransaction.transaction.getId(), pendingTransaction);
+    }
+
+    /**
+     * Returns the ids of the ancestors of a transaction followed by its own, read from its materialized path
+     */
+    private static long[] getSubtreeIds(Transaction transaction) {
+        return Arrays.stream(transaction.getPath().split("/"))
+                .filter(id -> !id.isEmpty())
+                .mapToLong(Long::parseLong)
+                .toArray();
+    }
+
+    /**
+     * A transaction being saved, buffered once it has a sequence number
+     */
+    private static class PendingTransaction {
+        private Transaction transaction;
+        private long[] subtreeIds;
+        private volatile long sequence;
+
+        private boolean isBuffered() {
+            return sequence > 0;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package net.flanche.transactionapp.transaction.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append only, memory mapped log of saved transactions. Every transaction is a fixed size record of
+ * RECORD_SIZE bytes:
+ * <pre>
+ *  0 id                      long
+ *  8 parent id               long, only meaningful if the HAS_PARENT flag is set
+ * 16 unscaled amount         long
+ * 24 type id                 int, see TypeDictionary
+ * 28 amount scale            byte
+ * 29 flags                   byte, VALID and HAS_PARENT
+ * 30 reserved                2 bytes
+ * </pre>
+ * The file is mapped in segments of a configurable size and grows one segment at a time. The flags byte is written
+ * last and a record without the VALID flag marks the end of the log, so a record cut short by a crash is ignored.
+ * <p>
+ * Appends are group committed: a writer waits until its record is forced to disk, and whichever writer forces
+ * the log does so for every record appended so far, so concurrent writers share a single force.
+ * </p>
+ * <p>
+ * Records are replayed as primitive fields, so reading the log allocates nothing per record.
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionLog implements Closeable {
+    public static final int RECORD_SIZE = 32;
+    static final String LOG_FILE = "transactions.log";
+    static final String TYPES_FILE = "types.log";
+    private static final int ID_OFFSET = 0;
+    private static final int PARENT_ID_OFFSET = 8;
+    private static final int AMOUNT_OFFSET = 16;
+    private static final int TYPE_OFFSET = 24;
+    private static final int SCALE_OFFSET = 28;
+    private static final int FLAGS_OFFSET = 29;
+    private static final byte VALID = 1;
+    private static final byte HAS_PARENT = 2;
+
+    private final FileChannel channel;
+    private final TypeDictionary types;
+    private final int segmentSize;
+    private final boolean sync;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Object syncMonitor = new Object();
+    // guarded by this
+    private long writePosition;
+    // guarded by syncMonitor
+    private long durablePosition;
+    private boolean syncing;
+
+    /**
+     * Constructor for the class, opens the log of a directory and finds its end
+     *
+     * @param directory   the directory of the log files, created if missing
+     * @param segmentSize the number of bytes mapped at a time, rounded down to a whole number of records
+     * @param sync        true to force every record to disk before append returns, false to leave it to the OS
+     * @throws IOException if the log cannot be opened
+     */
+    public TransactionLog(Path directory, int segmentSize, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        this.segmentSize = Math.max(RECORD_SIZE, segmentSize - segmentSize % RECORD_SIZE);
+        this.sync = sync;
+        this.types = new TypeDictionary(directory.resolve(TYPES_FILE), sync);
+        this.channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // the size is read once, asking the channel for it on every record made opening a large log take seconds
+        long fileSize = channel.size();
+        long position = 0;
+        while (position < fileSize && (segment(position).get(offset(position) + FLAGS_OFFSET) & VALID) != 0) {
+            position += RECORD_SIZE;
+        }
+        this.writePosition = position;
+        this.durablePosition = position;
+    }
+
+    /**
+     * Appends a transaction to the log and waits until it is durable
+     *
+     * @param id          the id of the transaction
+     * @param type        the type of the transaction
+     * @param amount      the unscaled amount of the transaction
+     * @param amountScale the scale of the amount, between Byte.MIN_VALUE and Byte.MAX_VALUE
+     * @param parentId    the id of the parent transaction, null for a root transaction
+     * @throws IOException if the record cannot be written
+     */
+    public void append(long id, String type, long amount, int amountScale, Long parentId) throws IOException {
+        awaitDurable(write(id, type, amount, amountScale, parentId));
+    }
+
+    /**
+     * Writes a transaction to the log without waiting for it to be durable
+     *
+     * @param id          the id of the transaction
+     * @param type        the type of the transaction
+     * @param amount      the unscaled amount of the transaction
+     * @param amountScale the scale of the amount, between Byte.MIN_VALUE and Byte.MAX_VALUE
+     * @param parentId    the id of the parent transaction, null for a root transaction
+     * @return the position right after the record, to be passed to awaitDurable
+     * @throws IOException if the record cannot be written
+     */
+    public long write(long id, String type, long amount, int amountScale, Long parentId) throws IOException {
+        return write(id, types.getId(type), amount, amountScale, parentId);
+    }
+
+    /**
+     * Writes a transaction whose type is already in the dictionary of the log without waiting for it to be durable
+     *
+     * @param id          the id of the transaction
+     * @param typeId      the id of the type of the transaction, see getTypeId
+     * @param amount      the unscaled amount of the transaction
+     * @param amountScale the scale of the amount, between Byte.MIN_VALUE and Byte.MAX_VALUE
+     * @param parentId    the id of the parent transaction, null for a root transaction
+     * @return the position right after the record, to be passed to awaitDurable
+     * @throws IOException if the record cannot be written
+     */
+    public long write(long id, int typeId, long amount, int amountScale, Long parentId) throws IOException {
+        if (amountScale < Byte.MIN_VALUE || amountScale > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("The amount scale " + amountScale + " does not fit into a log record");
+        }
+        if (typeId < 0 || typeId >= types.size()) {
+            throw new IllegalArgumentException("Unknown type id " + typeId);
+        }
+        synchronized (this) {
+            long position = writePosition;
+            MappedByteBuffer segment = segment(position);
+            int offset = offset(position);
+            segment.putLong(offset + ID_OFFSET, id);
+            segment.putLong(offset + PARENT_ID_OFFSET, parentId == null ? 0 : parentId);
+            segment.putLong(offset + AMOUNT_OFFSET, amount);
+            segment.putInt(offset + TYPE_OFFSET, typeId);
+            segment.put(offset + SCALE_OFFSET, (byte) amountScale);
+            segment.put(offset + FLAGS_OFFSET, (byte) (parentId == null ? VALID : VALID | HAS_PARENT));
+            writePosition = position + RECORD_SIZE;
+            return writePosition;
+        }
+    }
+
+    /**
+     * Returns the id the records of the log reference a type by, adding the type to the dictionary of the log if it
+     * is new. Stores that keep their own type ids use these, so the ids of a type are the same in memory and on disk.
+     *
+     * @param type the type
+     * @return the id of the type
+     * @throws IOException if a new type cannot be written
+     */
+    public int getTypeId(String type) throws IOException {
+        return types.getId(type);
+    }
+
+    /**
+     * Returns the type the records of the log reference by the given id
+     *
+     * @param typeId the id of the type, as passed to a RecordConsumer
+     * @return the type
+     * @throws IllegalArgumentException if no type has the id
+     */
+    public String getType(int typeId) {
+        return types.getType(typeId);
+    }
+
+    /**
+     * Reads every record of the log in the order it was appended. The records appended concurrently with the
+     * replay may or may not be read, so this is meant to be called before the log is written to.
+     *
+     * @param consumer the consumer of the records
+     */
+    public void replay(RecordConsumer consumer) {
+        replay(0, consumer);
+    }
+
+    /**
+     * Reads the records of the log from the given one on, in the order they were appended, see replay
+     *
+     * @param fromRecord the number of records to skip
+     * @param consumer   the consumer of the records
+     */
+    public void replay(long fromRecord, RecordConsumer consumer) {
+        long end;
+        synchronized (this) {
+            end = writePosition;
+        }
+        for (long position = fromRecord * RECORD_SIZE; position < end; position += RECORD_SIZE) {
+            MappedByteBuffer segment = segments.get((int) (position / segmentSize));
+            int offset = offset(position);
+            consumer.accept(segment.getLong(offset + ID_OFFSET), segment.getLong(offset + PARENT_ID_OFFSET),
+                    (segment.get(offset + FLAGS_OFFSET) & HAS_PARENT) != 0, segment.getLong(offset + AMOUNT_OFFSET),
+                    segment.get(offset + SCALE_OFFSET), segment.getInt(offset + TYPE_OFFSET));
+        }
+    }
+
+    /**
+     * Returns the number of records in the log
+     *
+     * @return the number of appended records
+     */
+    public synchronized long size() {
+        return writePosition / RECORD_SIZE;
+    }
+
+    /**
+     * Forces the whole log to disk and closes it
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        channel.close();
+        types.close();
+    }
+
+    /**
+     * Waits until the log is durable up to the given position. If no other writer is forcing the log, the caller
+     * forces everything written so far, otherwise it waits for the running force and checks again.
+     * Returns at once when the log is not synced.
+     *
+     * @param position a position returned by write
+     * @throws IOException if the log cannot be forced
+     */
+    public void awaitDurable(long position) throws IOException {
+        if (sync) {
+            force(position);
+        }
+    }
+
+    /**
+     * Forces the first records of the log to disk, whether the log is synced or not. Snapshots call this before they
+     * are written, so the log on disk is never shorter than a snapshot says it is.
+     *
+     * @param records the number of records to force, at most the size of the log
+     * @throws IOException if the log cannot be forced
+     */
+    public void force(long records) throws IOException {
+        forceTo(records * RECORD_SIZE);
+    }
+
+    /**
+     * Forces the log to disk up to the given position. If no other writer is forcing the log, the caller forces
+     * everything written so far, otherwise it waits for the running force and checks again.
+     */
+    private void forceTo(long position) throws IOException {
+        while (true) {
+            long from;
+            synchronized (syncMonitor) {
+                while (syncing && durablePosition < position) {
+                    try {
+                        syncMonitor.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the transaction log to be forced");
+                    }
+                }
+                if (durablePosition >= position) {
+                    return;
+                }
+                syncing = true;
+                from = durablePosition;
+            }
+            long forcedPosition = from;
+            try {
+                long to;
+                List<MappedByteBuffer> dirtySegments;
+                synchronized (this) {
+                    to = writePosition;
+                    dirtySegments = new ArrayList<>(segments.subList((int) (from / segmentSize), (int) ((to - 1) / segmentSize) + 1));
+                }
+                for (MappedByteBuffer segment : dirtySegments) {
+                    segment.force();
+                }
+                forcedPosition = to;
+            } finally {
+                synchronized (syncMonitor) {
+                    durablePosition = Math.max(durablePosition, forcedPosition);
+                    syncing = false;
+                    syncMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the segment holding the given position, mapping it and the ones before it if needed
+     */
+    private MappedByteBuffer segment(long position) throws IOException {
+        int index = (int) (position / segmentSize);
+        while (segments.size() <= index) {
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segments.add(segment);
+        }
+        return segments.get(index);
+    }
+
+    private int offset(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    /**
+     * Receives the records read from the log
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+        /**
+         * @param id          the id of the transaction
+         * @param parentId    the id of the parent transaction, only meaningful if hasParent is true
+         * @param hasParent   true if the transaction has a parent
+         * @param amount      the unscaled amount of the transaction
+         * @param amountScale the scale of the amount
+         * @param typeId      the id of the type of the transaction, see getType
+         */
+        void accept(long id, long parentId, boolean hasParent, long amount, int amountScale, int typeId);
+    }
+}
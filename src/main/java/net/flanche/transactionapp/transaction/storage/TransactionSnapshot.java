@@ -0,0 +1,313 @@
+package net.flanche.transactionapp.transaction.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reads and writes snapshots of the whole transaction set. A snapshot holds the transactions saved by the first
+ * records of a TransactionLog, so on startup only the records after it have to be replayed. The file is named after
+ * the number of log records it covers and is laid out column by column, every number being little endian:
+ * <pre>
+ * header   magic int, version int, amount scale int, rows int, log records long
+ * types    type count int, then for every type its length int and its UTF-8 bytes
+ * columns  ids long[rows], parent rows int[rows], type ids int[rows], amounts long[rows], subtree totals long[rows]
+ * </pre>
+ * Every long column starts at a multiple of 8 bytes. Rows are ordered so a parent always comes before its children,
+ * and the parent of a row is given by its row number, NO_PARENT for a root. Amounts and subtree totals are counted in
+ * minor units at the amount scale of the header.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public final class TransactionSnapshot {
+    public static final int NO_PARENT = -1;
+    private static final int MAGIC = 0x544e5350;
+    private static final int VERSION = 2;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int MAPPING_SIZE = 1 << 30;
+
+    private TransactionSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot into a directory and deletes the older ones. The snapshot is written to a temporary file,
+     * forced to disk and then renamed, so a crash never leaves a partial snapshot behind.
+     *
+     * @param directory   the directory of the snapshots
+     * @param logRecords  the number of log records the snapshot covers
+     * @param amountScale the scale of the amounts and totals of the rows
+     * @param rows        the transactions of the snapshot, parents before children
+     * @return the size of the snapshot in bytes
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static long write(Path directory, long logRecords, int amountScale, Rows rows) throws IOException {
+        int size = rows.size();
+        Map<String, Integer> typeIds = new LinkedHashMap<>();
+        for (int row = 0; row < size; row++) {
+            typeIds.putIfAbsent(rows.getType(row), typeIds.size());
+        }
+
+        Path temporaryFile = directory.resolve(PREFIX + logRecords + SUFFIX + ".tmp");
+        long fileSize;
+        try (ColumnWriter writer = new ColumnWriter(FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            writer.putInt(MAGIC).putInt(VERSION).putInt(amountScale).putInt(size).putLong(logRecords);
+            writer.putInt(typeIds.size());
+            for (String type : typeIds.keySet()) {
+                byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+                writer.putInt(bytes.length).put(bytes);
+            }
+            writer.align();
+            for (int row = 0; row < size; row++) {
+                writer.putLong(rows.getId(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(rows.getParentRow(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putInt(typeIds.get(rows.getType(row)));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putLong(rows.getAmount(row));
+            }
+            for (int row = 0; row < size; row++) {
+                writer.putLong(rows.getTotal(row));
+            }
+            fileSize = writer.finish();
+        }
+        Path file = directory.resolve(PREFIX + logRecords + SUFFIX);
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path olderFile : list(directory)) {
+            if (logRecords(olderFile) < logRecords) {
+                Files.delete(olderFile);
+            }
+        }
+        return fileSize;
+    }
+
+    /**
+     * Reads the latest snapshot of a directory with a memory mapped read. A snapshot written with another amount
+     * scale or by an older version is not read, the transactions then having to be replayed from the whole log.
+     *
+     * @param directory   the directory of the snapshots
+     * @param amountScale the scale the amounts and totals are expected at
+     * @param consumer    the consumer of the rows, called in row order so a parent is read before its children
+     * @return the number of log records the snapshot covers, Empty if the directory has no snapshot at the amount scale
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static Optional<Long> read(Path directory, int amountScale, RowConsumer consumer) throws IOException {
+        Path latest = null;
+        for (Path file : list(directory)) {
+            if (latest == null || logRecords(file) > logRecords(latest)) {
+                latest = file;
+            }
+        }
+        if (latest == null) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+            ColumnReader reader = new ColumnReader(channel);
+            if (reader.getInt(0) != MAGIC) {
+                throw new IOException("The file " + latest + " is not a transaction snapshot");
+            }
+            if (reader.getInt(4) != VERSION || reader.getInt(8) != amountScale) {
+                return Optional.empty();
+            }
+            int size = reader.getInt(12);
+            long logRecords = reader.getLong(16);
+            String[] types = new String[reader.getInt(24)];
+            long position = 28;
+            for (int i = 0; i < types.length; i++) {
+                byte[] bytes = new byte[reader.getInt(position)];
+                for (int j = 0; j < bytes.length; j++) {
+                    bytes[j] = reader.get(position + Integer.BYTES + j);
+                }
+                types[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += Integer.BYTES + bytes.length;
+            }
+            long ids = align(position);
+            long parentRows = ids + (long) Long.BYTES * size;
+            long typeIds = parentRows + (long) Integer.BYTES * size;
+            long amounts = typeIds + (long) Integer.BYTES * size;
+            long subtreeTotals = amounts + (long) Long.BYTES * size;
+            for (int row = 0; row < size; row++) {
+                consumer.accept(row, reader.getLong(ids + (long) Long.BYTES * row), reader.getInt(parentRows + (long) Integer.BYTES * row),
+                        types[reader.getInt(typeIds + (long) Integer.BYTES * row)], reader.getLong(amounts + (long) Long.BYTES * row),
+                        reader.getLong(subtreeTotals + (long) Long.BYTES * row));
+            }
+            return Optional.of(logRecords);
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static long logRecords(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static long align(long position) {
+        return (position + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    /**
+     * The transactions written into a snapshot, addressed by row
+     */
+    public interface Rows {
+        int size();
+
+        long getId(int row);
+
+        /**
+         * @return the row of the parent, which must be smaller than the given row, or NO_PARENT for a root transaction
+         */
+        int getParentRow(int row);
+
+        String getType(int row);
+
+        /**
+         * @return the amount of the transaction in minor units
+         */
+        long getAmount(int row);
+
+        /**
+         * @return the total of the subtree of the transaction in minor units
+         */
+        long getTotal(int row);
+    }
+
+    /**
+     * Receives the transactions read from a snapshot
+     */
+    @FunctionalInterface
+    public interface RowConsumer {
+        /**
+         * @param row       the row of the transaction
+         * @param id        the id of the transaction
+         * @param parentRow the row of the parent, always smaller than row, or NO_PARENT for a root transaction
+         * @param type      the type of the transaction
+         * @param amount    the amount of the transaction in minor units
+         * @param total     the total of the subtree of the transaction in minor units
+         */
+        void accept(int row, long id, int parentRow, String type, long amount, long total);
+    }
+
+    /**
+     * Writes the columns through a direct buffer, keeping track of the position to align the long columns
+     */
+    private static class ColumnWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        private ColumnWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private ColumnWriter putLong(long value) throws IOException {
+            ensureRemaining(Long.BYTES).putLong(value);
+            position += Long.BYTES;
+            return this;
+        }
+
+        private ColumnWriter putInt(int value) throws IOException {
+            ensureRemaining(Integer.BYTES).putInt(value);
+            position += Integer.BYTES;
+            return this;
+        }
+
+        private ColumnWriter put(byte value) throws IOException {
+            ensureRemaining(1).put(value);
+            position++;
+            return this;
+        }
+
+        private ColumnWriter put(byte[] values) throws IOException {
+            for (byte value : values) {
+                put(value);
+            }
+            return this;
+        }
+
+        private void align() throws IOException {
+            while (position != TransactionSnapshot.align(position)) {
+                put((byte) 0);
+            }
+        }
+
+        private long finish() throws IOException {
+            flush();
+            channel.force(true);
+            return position;
+        }
+
+        private ByteBuffer ensureRemaining(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the columns from the file mapped in regions of MAPPING_SIZE bytes. The regions start at multiples of
+     * 8 bytes, so an aligned long or int never spans two of them.
+     */
+    private static class ColumnReader {
+        private final List<MappedByteBuffer> regions = new ArrayList<>();
+
+        private ColumnReader(FileChannel channel) throws IOException {
+            for (long start = 0; start < channel.size(); start += MAPPING_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPING_SIZE, channel.size() - start));
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                regions.add(region);
+            }
+        }
+
+        private long getLong(long position) {
+            return regions.get((int) (position / MAPPING_SIZE)).getLong((int) (position % MAPPING_SIZE));
+        }
+
+        private int getInt(long position) {
+            return regions.get((int) (position / MAPPING_SIZE)).getInt((int) (position % MAPPING_SIZE));
+        }
+
+        private byte get(long position) {
+            return regions.get((int) (position / MAPPING_SIZE)).get((int) (position % MAPPING_SIZE));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.flanche.transactionapp.transaction.storage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps every transaction type to a compact int id, the position of the type in an append only file.
+ * A type is written to the file, and forced to disk when asked for, the first time it is used, so every
+ * id found in the transaction log can be resolved after a restart. Each entry of the file is the length
+ * of the type followed by its UTF-8 bytes.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TypeDictionary implements Closeable {
+    private final FileChannel channel;
+    private final boolean sync;
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> types = new ArrayList<>();
+
+    /**
+     * Constructor for the class, reads all the types already in the file
+     *
+     * @param file the file of the dictionary, created if missing
+     * @param sync true to force every new type to disk before its id is handed out
+     * @throws IOException if the file cannot be read
+     */
+    public TypeDictionary(Path file, boolean sync) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.sync = sync;
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        long position = 0;
+        while (position + Integer.BYTES <= channel.size()) {
+            length.clear();
+            readFully(length, position);
+            ByteBuffer type = ByteBuffer.allocate(length.getInt(0));
+            if (position + Integer.BYTES + type.capacity() > channel.size()) {
+                // an entry cut short by a crash, its type was never handed out
+                break;
+            }
+            readFully(type, position + Integer.BYTES);
+            register(new String(type.array(), StandardCharsets.UTF_8));
+            position += Integer.BYTES + type.capacity();
+        }
+        channel.truncate(position);
+        channel.position(position);
+    }
+
+    /**
+     * Returns the id of a type, adding the type to the dictionary if it is new
+     *
+     * @param type the type
+     * @return the id of the type
+     * @throws IOException if a new type cannot be written
+     */
+    public int getId(String type) throws IOException {
+        Integer id = ids.get(type);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(type);
+            if (id != null) {
+                return id;
+            }
+            byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+            entry.putInt(bytes.length).put(bytes).flip();
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+            return register(type);
+        }
+    }
+
+    /**
+     * Returns the type of an id
+     *
+     * @param id the id of the type
+     * @return the type
+     * @throws IllegalArgumentException if no type has the id
+     */
+    public synchronized String getType(int id) {
+        if (id < 0 || id >= types.size()) {
+            throw new IllegalArgumentException("Unknown type id " + id);
+        }
+        return types.get(id);
+    }
+
+    /**
+     * Returns all the types of the dictionary, each at the position of its id
+     *
+     * @return a copy of the types
+     */
+    public synchronized String[] toArray() {
+        return types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Returns the number of types in the dictionary
+     *
+     * @return the number of types
+     */
+    public synchronized int size() {
+        return types.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized int register(String type) {
+        int id = types.size();
+        types.add(type);
+        ids.put(type, id);
+        return id;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
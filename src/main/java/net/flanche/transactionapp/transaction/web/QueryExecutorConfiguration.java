@@ -0,0 +1,53 @@
+package net.flanche.transactionapp.transaction.web;
+
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Creates the bounded executor the TransactionController runs its expensive queries on, the subtree sums and the
+ * type queries. Those requests release their server thread while the query runs, so cheap lookups are still served
+ * when the queries saturate the executor. A fixed number of transaction.query-executor.threads run the queries and at
+ * most transaction.query-executor.queue-capacity more wait for a thread, further queries being rejected.
+ * The streamed responses are written on the same executor. The number of running and waiting queries is published
+ * as transaction.query-executor.active and transaction.query-executor.queued.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@Configuration
+public class QueryExecutorConfiguration extends WebMvcConfigurerAdapter {
+    /**
+     * Name of the executor bean
+     */
+    public static final String QUERY_EXECUTOR = "queryExecutor";
+
+    @Value("${transaction.query-executor.threads:16}")
+    private int threads;
+    @Value("${transaction.query-executor.queue-capacity:1000}")
+    private int queueCapacity;
+    @Autowired
+    private TransactionMetrics transactionMetrics;
+
+    @Bean(name = QUERY_EXECUTOR)
+    public ThreadPoolTaskExecutor queryExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("transaction-query-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        transactionMetrics.gauge("transaction.query-executor.active", executor::getActiveCount);
+        transactionMetrics.gauge("transaction.query-executor.queued", () -> executor.getThreadPoolExecutor().getQueue().size());
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(queryExecutor());
+    }
+}
@@ -0,0 +1,222 @@
+package net.flanche.transactionapp.transaction.web;
+
+import net.flanche.transactionapp.transaction.domain.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The compact binary encoding of the REST api, selected with the APPLICATION_TRANSACTION_BINARY_VALUE media type.
+ * All the numbers are big endian. A transaction is encoded as a fixed layout followed by its type:
+ * <pre>
+ *  0 id                      long
+ *  8 parent id               long, only meaningful if the HAS_PARENT flag is set
+ * 16 unscaled amount         long
+ * 24 amount scale            byte
+ * 25 flags                   byte, HAS_PARENT
+ * 26 type length             unsigned short, the number of bytes of the type
+ * 28 type                    UTF-8 bytes
+ * </pre>
+ * A list of ids is encoded as 8 bytes per id without any header, and the result of a lookup as the number of
+ * transactions found (int), the transactions, the number of missing ids (int) and the missing ids.
+ * <p>
+ * Amounts travel as the unscaled long and the scale of a BigDecimal, so they are neither formatted nor parsed. A
+ * transaction is read in place from the request bytes with the getters below, once checkTransaction has made sure
+ * the bytes hold exactly one, so its fields go straight to the service and only the type is copied into a String.
+ * </p>
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public final class TransactionBinaryFormat {
+    /**
+     * Media type of the binary encoding
+     */
+    public static final String APPLICATION_TRANSACTION_BINARY_VALUE = "application/x-transaction-binary";
+    private static final int ID_OFFSET = 0;
+    private static final int PARENT_ID_OFFSET = 8;
+    private static final int AMOUNT_OFFSET = 16;
+    private static final int SCALE_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 25;
+    private static final int TYPE_LENGTH_OFFSET = 26;
+    private static final int HEADER_SIZE = 28;
+    private static final int MAX_TYPE_LENGTH = 0xFFFF;
+    private static final byte HAS_PARENT = 1;
+
+    private TransactionBinaryFormat() {
+    }
+
+    /**
+     * Checks that the remaining bytes of the buffer hold exactly one transaction, neither cut short nor followed by
+     * other bytes. The getters below may only be used on a buffer that passed the check.
+     *
+     * @param buffer the encoded transaction
+     * @throws IllegalArgumentException if the buffer does not hold exactly one transaction
+     */
+    public static void checkTransaction(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Transaction cut short after " + buffer.remaining() + " bytes");
+        }
+        int size = HEADER_SIZE + getTypeLength(buffer);
+        if (buffer.remaining() != size) {
+            throw new IllegalArgumentException("Transaction of " + size + " bytes sent as " + buffer.remaining() + " bytes");
+        }
+    }
+
+    /**
+     * Getter for the id attribute of an encoded transaction
+     *
+     * @param buffer the encoded transaction, checked with checkTransaction
+     * @return the id
+     */
+    public static long getId(ByteBuffer buffer) {
+        return buffer.getLong(buffer.position() + ID_OFFSET);
+    }
+
+    /**
+     * Tells whether an encoded transaction has a parent
+     *
+     * @param buffer the encoded transaction, checked with checkTransaction
+     * @return true if the HAS_PARENT flag is set
+     */
+    public static boolean hasParent(ByteBuffer buffer) {
+        return (buffer.get(buffer.position() + FLAGS_OFFSET) & HAS_PARENT) != 0;
+    }
+
+    /**
+     * Getter for the parent id attribute of an encoded transaction, only meaningful if it has a parent
+     *
+     * @param buffer the encoded transaction, checked with checkTransaction
+     * @return the parent id
+     */
+    public static long getParentId(ByteBuffer buffer) {
+        return buffer.getLong(buffer.position() + PARENT_ID_OFFSET);
+    }
+
+    /**
+     * Getter for the amount attribute of an encoded transaction
+     *
+     * @param buffer the encoded transaction, checked with checkTransaction
+     * @return the amount, at the scale it was sent with
+     */
+    public static BigDecimal getAmount(ByteBuffer buffer) {
+        return BigDecimal.valueOf(buffer.getLong(buffer.position() + AMOUNT_OFFSET), buffer.get(buffer.position() + SCALE_OFFSET));
+    }
+
+    /**
+     * Getter for the type attribute of an encoded transaction
+     *
+     * @param buffer the encoded transaction, checked with checkTransaction and backed by an array
+     * @return the type
+     */
+    public static String getType(ByteBuffer buffer) {
+        return new String(buffer.array(), buffer.arrayOffset() + buffer.position() + HEADER_SIZE, getTypeLength(buffer),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a transaction
+     *
+     * @param transaction the transaction to encode
+     * @return the encoded transaction
+     */
+    public static byte[] encodeTransaction(Transaction transaction) {
+        return encode(output -> writeTransaction(output, transaction));
+    }
+
+    /**
+     * Reads a list of ids, 8 bytes each, from the given input. At most one byte more than maxIds ids take is read, so
+     * a longer list is rejected without being read whole.
+     *
+     * @param input  the encoded ids
+     * @param maxIds the largest number of ids accepted
+     * @return the ids
+     * @throws IllegalArgumentException if the input does not hold a whole number of ids or holds more than maxIds
+     * @throws IOException              if the input cannot be read
+     */
+    public static long[] readIds(InputStream input, int maxIds) throws IOException {
+        byte[] bytes = new byte[maxIds * Long.BYTES + 1];
+        int length = 0;
+        int read;
+        while (length < bytes.length && (read = input.read(bytes, length, bytes.length - length)) != -1) {
+            length += read;
+        }
+        if (length > maxIds * Long.BYTES) {
+            throw new IllegalArgumentException("More than " + maxIds + " ids");
+        }
+        if (length % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Ids cut short, " + length + " bytes");
+        }
+        long[] ids = new long[length / Long.BYTES];
+        ByteBuffer.wrap(bytes, 0, length).asLongBuffer().get(ids);
+        return ids;
+    }
+
+    /**
+     * Encodes the result of a lookup
+     *
+     * @param transactions the transactions found
+     * @param missingIds   the ids that belong to no transaction
+     * @return the encoded result
+     */
+    public static byte[] encodeLookup(List<Transaction> transactions, List<Long> missingIds) {
+        return encode(output -> {
+            output.writeInt(transactions.size());
+            for (Transaction transaction : transactions) {
+                writeTransaction(output, transaction);
+            }
+            output.writeInt(missingIds.size());
+            for (long id : missingIds) {
+                output.writeLong(id);
+            }
+        });
+    }
+
+    /**
+     * Writes a transaction to the given output
+     *
+     * @param output      the output to write to
+     * @param transaction the transaction to write
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeTransaction(DataOutput output, Transaction transaction) throws IOException {
+        byte[] type = transaction.getType().getBytes(StandardCharsets.UTF_8);
+        if (type.length > MAX_TYPE_LENGTH) {
+            throw new IllegalArgumentException("Type of transaction " + transaction.getId() + " too long to encode");
+        }
+        output.writeLong(transaction.getId());
+        output.writeLong(transaction.getParentId().orElse(0L));
+        output.writeLong(transaction.getMinorUnits());
+        output.writeByte(transaction.getAmountScale());
+        output.writeByte(transaction.getParentId().isPresent() ? HAS_PARENT : 0);
+        output.writeShort(type.length);
+        output.write(type);
+    }
+
+    private static int getTypeLength(ByteBuffer buffer) {
+        return Short.toUnsignedInt(buffer.getShort(buffer.position() + TYPE_LENGTH_OFFSET));
+    }
+
+    private static byte[] encode(Encoder encoder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            encoder.encode(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // a ByteArrayOutputStream never fails
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface Encoder {
+        void encode(DataOutput output) throws IOException;
+    }
+}
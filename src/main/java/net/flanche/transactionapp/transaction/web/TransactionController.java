@@ -1,60 +1,241 @@
 package net.flanche.transactionapp.transaction.web;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import net.flanche.transactionapp.metrics.TransactionMetrics;
 import net.flanche.transactionapp.transaction.domain.Transaction;
 import net.flanche.transactionapp.transaction.service.*;
-import net.flanche.transactionapp.transaction.web.model.SumResponse;
-import net.flanche.transactionapp.transaction.web.model.TransactionPutRequest;
-import net.flanche.transactionapp.transaction.web.model.TransactionPutResponse;
+import net.flanche.transactionapp.transaction.web.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.util.List;
-import java.util.Optional;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 /**
- * Controller for the transaction REST api
+ * Controller for the transaction REST api. The subtree sums, the type queries and the bulk lookups can take long, so they run
+ * asynchronously on the bounded query executor and release the server thread meanwhile, while the cheap lookups
+ * and the saves run on the server thread.
  *
  * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
  */
 @RestController
 @RequestMapping("/transactionservice")
 public class TransactionController {
+    /**
+     * Media type of newline delimited JSON, one JSON document per line
+     */
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final int NDJSON_CHUNK_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
 
     private final TransactionService transactionService;
+    private final Executor queryExecutor;
+    private final JsonFactory jsonFactory;
+    private final ObjectReader batchRecordReader;
+    private final ObjectWriter lookupChunkWriter;
+    private final LongAdder batchBadRequests;
+    private final LongAdder batchConflicts;
 
     @Autowired
-    public TransactionController(TransactionService transactionService) {
+    public TransactionController(TransactionService transactionService, ObjectMapper objectMapper, TransactionMetrics transactionMetrics,
+                                 @Qualifier(QueryExecutorConfiguration.QUERY_EXECUTOR) Executor queryExecutor) {
         this.transactionService = transactionService;
+        this.queryExecutor = queryExecutor;
+        this.jsonFactory = objectMapper.getFactory();
+        this.batchRecordReader = objectMapper.readerFor(TransactionBatchPutRequest.class);
+        this.lookupChunkWriter = objectMapper.writerFor(TransactionLookupResponse.class);
+        this.batchBadRequests = transactionMetrics.counter("transaction.http.batch.status.400");
+        this.batchConflicts = transactionMetrics.counter("transaction.http.batch.status.409");
     }
 
+    /**
+     * Returns the ids of the transactions of a type, in ascending order. Only the ids are read from the store, so no
+     * transaction is loaded
+     */
     @RequestMapping(value = "/types/{type}", method = RequestMethod.GET)
-    public ResponseEntity<List<Long>> findTransactionIdsOfType(@PathVariable("type") String type) {
+    public CompletableFuture<ResponseEntity<List<Long>>> findTransactionIdsOfType(@PathVariable("type") String type) {
+        return query(() -> {
+            try {
+                List<Long> outputList = transactionService.streamTransactionIdsOfType(type)
+                        .boxed()
+                        .collect(Collectors.toList());
+                return ResponseEntity.ok(outputList);
+
+            } catch (InvalidTransactionType invalidTransactionType) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        });
+    }
+
+    /**
+     * Streaming variant of findTransactionIdsOfType, selected with Accept: application/x-ndjson. The ids are written
+     * one per line while they are read from the store, so the first byte goes out right away and memory use does
+     * not grow with the number of ids.
+     */
+    @RequestMapping(value = "/types/{type}", method = RequestMethod.GET, produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTransactionIdsOfType(@PathVariable("type") String type) {
         try {
-            List<Long> outputList = transactionService.getTransactionsOfType(type).stream()
-                    .map(Transaction::getId)
-                    .collect(Collectors.toList());
-            return ResponseEntity.ok(outputList);
+            PrimitiveIterator.OfLong transactionIds = transactionService.streamTransactionIdsOfType(type).iterator();
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                    .body(outputStream -> {
+                        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                        while (transactionIds.hasNext()) {
+                            writer.write(Long.toString(transactionIds.nextLong()));
+                            writer.write('\n');
+                        }
+                        writer.flush();
+                    });
+        } catch (InvalidTransactionType invalidTransactionType) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
 
+    /**
+     * Binary variant of streamTransactionIdsOfType, selected with Accept: application/x-transaction-binary.
+     * The ids are written as 8 bytes each while they are read from the store.
+     */
+    @RequestMapping(value = "/types/{type}", method = RequestMethod.GET, produces = TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamTransactionIdsOfTypeBinary(@PathVariable("type") String type) {
+        try {
+            PrimitiveIterator.OfLong transactionIds = transactionService.streamTransactionIdsOfType(type).iterator();
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE))
+                    .body(outputStream -> {
+                        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+                        while (transactionIds.hasNext()) {
+                            output.writeLong(transactionIds.nextLong());
+                        }
+                        output.flush();
+                    });
         } catch (InvalidTransactionType invalidTransactionType) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
     }
 
-    @RequestMapping(value = "/sum/{transactionId}", method = RequestMethod.GET)
-    public ResponseEntity<SumResponse> sumOfTransactions(@PathVariable("transactionId") long transactionId) {
+    /**
+     * Paged variant of findTransactionIdsOfType, selected by giving a limit. The cursor of the next page is returned
+     * with each page until the last one. The id and amount ranges are optional and inclusive.
+     */
+    @RequestMapping(value = "/types/{type}", method = RequestMethod.GET, params = "limit")
+    public CompletableFuture<ResponseEntity<TransactionIdPageResponse>> findTransactionIdsOfTypePage(@PathVariable("type") String type,
+                                                                                  @RequestParam("limit") int limit,
+                                                                                  @RequestParam(value = "cursor", required = false) String cursor,
+                                                                                  @RequestParam(value = "min_id", required = false) Long minId,
+                                                                                  @RequestParam(value = "max_id", required = false) Long maxId,
+                                                                                  @RequestParam(value = "min_amount", required = false) BigDecimal minAmount,
+                                                                                  @RequestParam(value = "max_amount", required = false) BigDecimal maxAmount) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return query(() -> {
+            try {
+                OptionalLong afterId = cursor == null ? OptionalLong.empty() : OptionalLong.of(decodeCursor(cursor));
+                TransactionIdPage page = transactionService.getTransactionIdsOfType(type,
+                        new TransactionFilter(minId, maxId, minAmount, maxAmount), afterId, limit);
+                String nextCursor = page.getNextAfterId().isPresent() ? encodeCursor(page.getNextAfterId().getAsLong()) : null;
+                return ResponseEntity.ok(new TransactionIdPageResponse(page.getIds(), nextCursor));
+            } catch (InvalidTransactionType | IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of transactions of a type and the total, minimum and maximum of their amounts, read from
+     * statistics maintained on every save
+     */
+    @RequestMapping(value = "/types/{type}/stats", method = RequestMethod.GET)
+    public ResponseEntity<TypeStatsResponse> getTypeStats(@PathVariable("type") String type) {
         try {
-            BigDecimal totalSum = transactionService.getTotalAmountOfChildrenTransactions(transactionId);
-            return ResponseEntity.ok(new SumResponse(totalSum.doubleValue()));
-        } catch (InvalidTransactionId e) {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            Optional<TransactionTypeStats> stats = transactionService.getTypeStats(type);
+            if (!stats.isPresent()) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+            return ResponseEntity.ok(encodeTypeStats(stats.get()));
+        } catch (InvalidTransactionType invalidTransactionType) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
     }
 
+    /**
+     * Returns the statistics of every type that has transactions, ordered by type
+     */
+    @RequestMapping(value = "/stats", method = RequestMethod.GET)
+    public ResponseEntity<List<TypeStatsResponse>> getAllTypeStats() {
+        return ResponseEntity.ok(transactionService.getAllTypeStats().stream()
+                .map(this::encodeTypeStats)
+                .collect(Collectors.toList()));
+    }
+
+    @RequestMapping(value = "/sum/{transactionId}", method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<SumResponse>> sumOfTransactions(@PathVariable("transactionId") long transactionId) {
+        return query(() -> {
+            try {
+                BigDecimal totalSum = transactionService.getTotalAmountOfChildrenTransactions(transactionId);
+                return ResponseEntity.ok(new SumResponse(totalSum.doubleValue()));
+            } catch (InvalidTransactionId e) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+        });
+    }
+
+    /**
+     * Returns a transaction and its descendants down to max_depth levels below it, ordered by depth
+     */
+    @RequestMapping(value = "/tree/{transactionId}", method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<List<TransactionTreeNodeResponse>>> getTree(@PathVariable("transactionId") long transactionId,
+                                                                                        @RequestParam(value = "max_depth", defaultValue = "10") int maxDepth) {
+        if (maxDepth < 0) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return query(() -> {
+            try {
+                List<Transaction> tree = transactionService.getTransactionTree(transactionId, maxDepth);
+                int rootDepth = tree.get(0).getDepth();
+                return ResponseEntity.ok(tree.stream()
+                        .map(transaction -> new TransactionTreeNodeResponse(transaction.getId(), transaction.getType(),
+                                transaction.getAmount().doubleValue(),
+                                transaction.getParentId().orElse(null),
+                                transaction.getDepth() - rootDepth))
+                        .collect(Collectors.toList()));
+            } catch (InvalidTransactionId e) {
+                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            }
+        });
+    }
+
     @RequestMapping(value = "/transaction/{transactionId}", method = RequestMethod.GET)
     public ResponseEntity<TransactionPutResponse> get(@PathVariable("transactionId") long transactionId) {
         Optional<Transaction> transaction = transactionService.getTransactionById(transactionId);
@@ -66,6 +247,83 @@ public class TransactionController {
     }
 
 
+    /**
+     * Looks up a list of ids with a single service call, answering with the transactions found and the missing ids.
+     * Up to MAX_PAGE_SIZE ids are answered at once, longer lists have to be streamed with Accept: application/x-ndjson.
+     */
+    @RequestMapping(value = "/transactions/lookup", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<TransactionLookupResponse>> lookup(@RequestBody List<Long> ids) {
+        if (ids.size() > MAX_PAGE_SIZE || ids.contains(null)) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return query(() -> ResponseEntity.ok(lookupChunk(ids)));
+    }
+
+    /**
+     * Streaming variant of lookup, selected with Accept: application/x-ndjson. The ids are parsed from the request
+     * body in chunks of NDJSON_CHUNK_SIZE, each chunk being looked up and written as one line holding the transactions
+     * found and the missing ids before the next one is parsed, so memory use does not grow with the number of ids.
+     * An invalid id in the first chunk is a bad request, one in a later chunk ends the response where it is, as the
+     * status was already sent.
+     */
+    @RequestMapping(value = "/transactions/lookup", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamLookup(InputStream body) throws IOException {
+        JsonParser parser = jsonFactory.createParser(body);
+        List<Long> firstChunk;
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            firstChunk = readIdChunk(parser);
+        } catch (JsonProcessingException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(outputStream -> {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                    for (List<Long> ids = firstChunk; !ids.isEmpty(); ids = readIdChunk(parser)) {
+                        writer.write(lookupChunkWriter.writeValueAsString(lookupChunk(ids)));
+                        writer.write('\n');
+                    }
+                    writer.flush();
+                    parser.close();
+                });
+    }
+
+    /**
+     * Binary variant of lookup, selected with Content-Type and Accept: application/x-transaction-binary. Up to
+     * MAX_PAGE_SIZE ids are answered like with JSON, and no more of the request body than that is read.
+     */
+    @RequestMapping(value = "/transactions/lookup", method = RequestMethod.POST, consumes = TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE,
+            produces = TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE)
+    public CompletableFuture<ResponseEntity<byte[]>> lookupBinary(InputStream body) throws IOException {
+        List<Long> ids;
+        try {
+            ids = LongStream.of(TransactionBinaryFormat.readIds(body, MAX_PAGE_SIZE)).boxed().collect(Collectors.toList());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return query(() -> {
+            List<Transaction> transactions = transactionService.getTransactionsByIds(ids);
+            return ResponseEntity.ok(TransactionBinaryFormat.encodeLookup(transactions, missingIds(ids, transactions)));
+        });
+    }
+
+    /**
+     * Binary variant of get, selected with Accept: application/x-transaction-binary
+     */
+    @RequestMapping(value = "/transaction/{transactionId}", method = RequestMethod.GET, produces = TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE)
+    public ResponseEntity<byte[]> getBinary(@PathVariable("transactionId") long transactionId) {
+        Optional<Transaction> transaction = transactionService.getTransactionById(transactionId);
+        if (transaction.isPresent()) {
+            return ResponseEntity.ok(TransactionBinaryFormat.encodeTransaction(transaction.get()));
+        } else {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+    }
+
     @RequestMapping(value = "/transaction/{transactionId}", method = RequestMethod.PUT)
     public ResponseEntity<TransactionPutResponse> put(@PathVariable("transactionId") long transactionId,
                                                       @Valid @RequestBody TransactionPutRequest transactionPutRequest) {
@@ -79,22 +337,249 @@ public class TransactionController {
             }
         } catch (DuplicateTransactionException e) {
             return new ResponseEntity<>(HttpStatus.CONFLICT);
-        } catch (InvalidTransactionType | InvalidParentTransaction invalidTransactionType) {
+        } catch (InvalidTransactionType | InvalidParentTransaction | InvalidTransactionAmount invalidTransactionType) {
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
         return ResponseEntity.ok(encodeTransaction(transaction));
     }
 
     /**
-     * Encodes a transaction into an output transaction
+     * Binary variant of put, selected with Content-Type and Accept: application/x-transaction-binary. The body has to
+     * hold exactly one record, whose fields are read in place from the request bytes and passed straight to the
+     * service, its amount from its unscaled value and scale. Its id has to match the one of the path.
+     */
+    @RequestMapping(value = "/transaction/{transactionId}", method = RequestMethod.PUT, consumes = TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE,
+            produces = TransactionBinaryFormat.APPLICATION_TRANSACTION_BINARY_VALUE)
+    public ResponseEntity<byte[]> putBinary(@PathVariable("transactionId") long transactionId, @RequestBody byte[] body) {
+        ByteBuffer record = ByteBuffer.wrap(body);
+        try {
+            TransactionBinaryFormat.checkTransaction(record);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (TransactionBinaryFormat.getId(record) != transactionId) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Transaction transaction;
+        try {
+            if (TransactionBinaryFormat.hasParent(record)) {
+                transaction = transactionService.saveTransaction(transactionId, TransactionBinaryFormat.getType(record),
+                        TransactionBinaryFormat.getAmount(record), TransactionBinaryFormat.getParentId(record));
+            } else {
+                transaction = transactionService.saveTransaction(transactionId, TransactionBinaryFormat.getType(record),
+                        TransactionBinaryFormat.getAmount(record));
+            }
+        } catch (DuplicateTransactionException e) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        } catch (InvalidTransactionType | InvalidParentTransaction | InvalidTransactionAmount invalidTransactionType) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return ResponseEntity.ok(TransactionBinaryFormat.encodeTransaction(transaction));
+    }
+
+    @RequestMapping(value = "/transactions", method = RequestMethod.PUT, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<TransactionBatchPutResponse>> putAll(@RequestBody List<TransactionBatchPutRequest> transactionBatchPutRequests) {
+        return ResponseEntity.ok(saveBatch(transactionBatchPutRequests));
+    }
+
+    /**
+     * Reads the batch one line at a time and saves it in chunks, so the whole body is never held in memory.
+     * A line that is not a valid record is reported as a bad request without stopping the batch.
+     */
+    @RequestMapping(value = "/transactions", method = RequestMethod.PUT, consumes = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<List<TransactionBatchPutResponse>> putAllNdjson(InputStream body) throws IOException {
+        List<TransactionBatchPutResponse> result = new ArrayList<>();
+        List<TransactionBatchPutRequest> chunk = new ArrayList<>(NDJSON_CHUNK_SIZE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                chunk.add(batchRecordReader.readValue(line));
+            } catch (JsonProcessingException e) {
+                chunk.add(null);
+            }
+            if (chunk.size() == NDJSON_CHUNK_SIZE) {
+                result.addAll(saveBatch(chunk));
+                chunk.clear();
+            }
+        }
+        result.addAll(saveBatch(chunk));
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Runs a query on the query executor, the response being written once it completes. When the executor has no
+     * room left for the query it is answered right away with 503, so a burst of expensive queries cannot pile up.
+     *
+     * @param query the query, answering with the response
+     * @return the response, completed once the query ran
+     */
+    private <T> CompletableFuture<ResponseEntity<T>> query(Supplier<ResponseEntity<T>> query) {
+        try {
+            return CompletableFuture.supplyAsync(query, queryExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+    }
+
+    /**
+     * Looks up a chunk of ids with a single service call
+     *
+     * @param ids the ids to look up
+     * @return the transactions found and the ids missing, both in the order of the ids
+     */
+    private TransactionLookupResponse lookupChunk(List<Long> ids) {
+        List<Transaction> transactions = transactionService.getTransactionsByIds(ids);
+        return new TransactionLookupResponse(
+                transactions.stream()
+                        .map(transaction -> new TransactionLookupRecordResponse(transaction.getId(), transaction.getType(),
+                                transaction.getAmount().doubleValue(), transaction.getParentId().orElse(null)))
+                        .collect(Collectors.toList()),
+                missingIds(ids, transactions));
+    }
+
+    /**
+     * Reads the next chunk of up to NDJSON_CHUNK_SIZE ids from a JSON array
+     *
+     * @param parser the parser positioned on the start of the array or on the last id read
+     * @return the ids read, empty once the end of the array is reached
+     * @throws JsonProcessingException if the array holds anything but ids
+     * @throws IOException             if the request body cannot be read
+     */
+    private static List<Long> readIdChunk(JsonParser parser) throws IOException {
+        List<Long> ids = new ArrayList<>(NDJSON_CHUNK_SIZE);
+        while (ids.size() < NDJSON_CHUNK_SIZE && parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                ids.add(parser.getLongValue());
+            } else if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "Expected an id instead of " + token);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids a lookup found no transaction for
+     *
+     * @param ids          the ids looked up
+     * @param transactions the transactions found
+     * @return the ids that belong to none of the transactions, in the order of the ids
+     */
+    private static List<Long> missingIds(List<Long> ids, List<Transaction> transactions) {
+        Set<Long> foundIds = transactions.stream().map(Transaction::getId).collect(Collectors.toSet());
+        return ids.stream().filter(id -> !foundIds.contains(id)).collect(Collectors.toList());
+    }
+
+    /**
+     * Saves the valid records of a batch with a single service call and reports the outcome of every record.
+     * The records rejected with a bad request or a conflict are counted as transaction.http.batch.status.&lt;code&gt;
+     *
+     * @param requests the records of the batch, a null record stands for one that could not be read
+     * @return the outcome of each record, in the same order as the records
+     */
+    private List<TransactionBatchPutResponse> saveBatch(List<TransactionBatchPutRequest> requests) {
+        TransactionBatchPutResponse[] responses = new TransactionBatchPutResponse[requests.size()];
+        List<TransactionRecord> records = new ArrayList<>(requests.size());
+        List<Integer> recordPositions = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Optional<TransactionRecord> record = decodeRecord(requests.get(i));
+            if (record.isPresent()) {
+                records.add(record.get());
+                recordPositions.add(i);
+            } else {
+                Long id = requests.get(i) == null ? null : requests.get(i).getId().orElse(null);
+                responses[i] = new TransactionBatchPutResponse(id, HttpStatus.BAD_REQUEST.value());
+                batchBadRequests.increment();
+            }
+        }
+        List<SaveStatus> statuses = transactionService.saveTransactions(records);
+        for (int i = 0; i < records.size(); i++) {
+            HttpStatus status;
+            switch (statuses.get(i)) {
+                case SAVED:
+                    status = HttpStatus.OK;
+                    break;
+                case DUPLICATE:
+                    status = HttpStatus.CONFLICT;
+                    batchConflicts.increment();
+                    break;
+                default:
+                    status = HttpStatus.BAD_REQUEST;
+                    batchBadRequests.increment();
+            }
+            responses[recordPositions.get(i)] = new TransactionBatchPutResponse(records.get(i).getId(), status.value());
+        }
+        return Arrays.asList(responses);
+    }
+
+    /**
+     * Decodes a batch record into a transaction record
+     *
+     * @param request the record to decode
+     * @return the decoded record or Empty if the record misses its id or amount, or the amount is not a number
+     */
+    private Optional<TransactionRecord> decodeRecord(TransactionBatchPutRequest request) {
+        if (request == null || !request.getId().isPresent() || request.getAmount() == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new TransactionRecord(request.getId().get(), request.getType(),
+                    new BigDecimal(request.getAmount()), request.getParentId().orElse(null)));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Encodes the last id of a page into an opaque cursor
+     *
+     * @param lastId the last id of the page
+     * @return the cursor of the next page
+     */
+    private static String encodeCursor(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(lastId).array());
+    }
+
+    /**
+     * Decodes a cursor created by encodeCursor
+     *
+     * @param cursor the cursor to decode
+     * @return the last id of the previous page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    private static long decodeCursor(String cursor) {
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != Long.BYTES) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * Encodes the statistics of a type into their output format
+     *
+     * @param stats the statistics to encode
+     * @return a representation of the statistics in the output format
+     */
+    private TypeStatsResponse encodeTypeStats(TransactionTypeStats stats) {
+        return new TypeStatsResponse(stats.getType(), stats.getCount(), stats.getTotal().doubleValue(),
+                stats.getMin().doubleValue(), stats.getMax().doubleValue());
+    }
+
+    /**
+     * Encodes a transaction into an output transaction. Only the id of the parent is read, so the parent is not loaded
      *
      * @param transaction the transaction to encode
      * @return a representation of the transaction in the output format
      */
     private TransactionPutResponse encodeTransaction(Transaction transaction) {
-        if (transaction.getParentTransaction().isPresent()) {
+        if (transaction.getParentId().isPresent()) {
             return new TransactionPutResponse(transaction.getType(), transaction.getAmount().doubleValue(),
-                    transaction.getParentTransaction().get().getId());
+                    transaction.getParentId().get());
         } else {
             return new TransactionPutResponse(transaction.getType(), transaction.getAmount().doubleValue());
         }
@@ -0,0 +1,28 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Optional;
+
+/**
+ * Model class to describe one transaction of a batch input in our REST api.
+ * As the batch is not sent to a per transaction URL, the id is part of the record
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionBatchPutRequest extends TransactionPutRequest {
+    @JsonProperty(value = "id", required = true)
+    private Long id;
+
+    public TransactionBatchPutRequest() {
+    }
+
+    /**
+     * Getter for the id attribute
+     *
+     * @return the id of this transaction if given, otherwise Empty is returned
+     */
+    public Optional<Long> getId() {
+        return Optional.ofNullable(id);
+    }
+}
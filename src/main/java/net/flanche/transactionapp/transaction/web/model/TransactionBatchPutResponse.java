@@ -0,0 +1,47 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Model class that describes the outcome of saving one transaction of a batch. The status is the
+ * HTTP status the transaction would have gotten if it was sent on its own
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionBatchPutResponse {
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("id")
+    private Long id;
+    @JsonProperty("status")
+    private int status;
+
+    /**
+     * Constructor for the class
+     *
+     * @param id     the id of the transaction, null if the record could not be read
+     * @param status the HTTP status code of the outcome
+     */
+    public TransactionBatchPutResponse(Long id, int status) {
+        this.id = id;
+        this.status = status;
+    }
+
+    /**
+     * Getter for the id attribute
+     *
+     * @return the id of the transaction
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the status attribute
+     *
+     * @return the HTTP status code of the outcome
+     */
+    public int getStatus() {
+        return status;
+    }
+}
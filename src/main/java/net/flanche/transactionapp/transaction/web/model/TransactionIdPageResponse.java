@@ -0,0 +1,47 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Model class to describe one page of transaction ids. The cursor is opaque to clients and
+ * is sent back to get the following page
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionIdPageResponse {
+    @JsonProperty("ids")
+    private long[] ids;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("next_cursor")
+    private String nextCursor;
+
+    /**
+     * Constructor for the class
+     *
+     * @param ids        the ids of the page
+     * @param nextCursor the cursor of the next page, null if this is the last page
+     */
+    public TransactionIdPageResponse(long[] ids, String nextCursor) {
+        this.ids = ids;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Getter for the ids attribute
+     *
+     * @return the ids of the page
+     */
+    public long[] getIds() {
+        return ids;
+    }
+
+    /**
+     * Getter for the nextCursor attribute
+     *
+     * @return the cursor of the next page, null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
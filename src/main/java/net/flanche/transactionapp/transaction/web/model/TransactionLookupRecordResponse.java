@@ -0,0 +1,72 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Model class that describes one transaction found by a bulk lookup in the API format
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionLookupRecordResponse {
+    @JsonProperty("id")
+    private long id;
+    @JsonProperty("type")
+    private String type;
+    @JsonProperty("amount")
+    private double amount;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("parent_id")
+    private Long parentId;
+
+    /**
+     * Constructor for the class
+     *
+     * @param id       the id of the transaction
+     * @param type     the type of the transaction
+     * @param amount   the amount of the transaction
+     * @param parentId the id of the parent of the transaction, null if it has none
+     */
+    public TransactionLookupRecordResponse(long id, String type, double amount, Long parentId) {
+        this.id = id;
+        this.type = type;
+        this.amount = amount;
+        this.parentId = parentId;
+    }
+
+    /**
+     * Getter for the id attribute
+     *
+     * @return the id of the transaction
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the type attribute
+     *
+     * @return the type of the transaction
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Getter for the amount attribute
+     *
+     * @return the amount of the transaction
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+    /**
+     * Getter for the parentId attribute
+     *
+     * @return the id of the parent of the transaction, null if it has none
+     */
+    public Long getParentId() {
+        return parentId;
+    }
+}
@@ -0,0 +1,47 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Model class that describes the result of a bulk lookup in the API format: the transactions found and the ids
+ * that belong to no transaction
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionLookupResponse {
+    @JsonProperty("transactions")
+    private List<TransactionLookupRecordResponse> transactions;
+    @JsonProperty("missing")
+    private List<Long> missing;
+
+    /**
+     * Constructor for the class
+     *
+     * @param transactions the transactions found, in the order of the requested ids
+     * @param missing      the requested ids that belong to no transaction, in the order they were requested
+     */
+    public TransactionLookupResponse(List<TransactionLookupRecordResponse> transactions, List<Long> missing) {
+        this.transactions = transactions;
+        this.missing = missing;
+    }
+
+    /**
+     * Getter for the transactions attribute
+     *
+     * @return the transactions found, in the order of the requested ids
+     */
+    public List<TransactionLookupRecordResponse> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Getter for the missing attribute
+     *
+     * @return the requested ids that belong to no transaction
+     */
+    public List<Long> getMissing() {
+        return missing;
+    }
+}
@@ -0,0 +1,85 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Model class that describes one transaction of a subtree in the API format
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TransactionTreeNodeResponse {
+    @JsonProperty("id")
+    private long id;
+    @JsonProperty("type")
+    private String type;
+    @JsonProperty("amount")
+    private double amount;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("parent_id")
+    private Long parentId;
+    @JsonProperty("depth")
+    private int depth;
+
+    /**
+     * Constructor for the class
+     *
+     * @param id       the id of the transaction
+     * @param type     the type of the transaction
+     * @param amount   the amount of the transaction
+     * @param parentId the id of the parent of the transaction, null if it has none
+     * @param depth    the depth of the transaction relative to the root of the subtree
+     */
+    public TransactionTreeNodeResponse(long id, String type, double amount, Long parentId, int depth) {
+        this.id = id;
+        this.type = type;
+        this.amount = amount;
+        this.parentId = parentId;
+        this.depth = depth;
+    }
+
+    /**
+     * Getter for the id attribute
+     *
+     * @return the id of the transaction
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Getter for the type attribute
+     *
+     * @return the type of the transaction
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Getter for the amount attribute
+     *
+     * @return the amount of the transaction
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+    /**
+     * Getter for the parent id attribute
+     *
+     * @return the id of the parent of the transaction, null if it has none
+     */
+    public Long getParentId() {
+        return parentId;
+    }
+
+    /**
+     * Getter for the depth attribute
+     *
+     * @return the depth of the transaction relative to the root of the subtree
+     */
+    public int getDepth() {
+        return depth;
+    }
+}
@@ -0,0 +1,83 @@
+package net.flanche.transactionapp.transaction.web.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Model class that describes the statistics of the transactions of a type in the API format
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class TypeStatsResponse {
+    @JsonProperty("type")
+    private String type;
+    @JsonProperty("count")
+    private long count;
+    @JsonProperty("total")
+    private double total;
+    @JsonProperty("min")
+    private double min;
+    @JsonProperty("max")
+    private double max;
+
+    /**
+     * Constructor for the class
+     *
+     * @param type  the type of the transactions
+     * @param count the number of transactions of the type
+     * @param total the sum of their amounts
+     * @param min   the smallest of their amounts
+     * @param max   the largest of their amounts
+     */
+    public TypeStatsResponse(String type, long count, double total, double min, double max) {
+        this.type = type;
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Getter for the type attribute
+     *
+     * @return the type of the transactions
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Getter for the count attribute
+     *
+     * @return the number of transactions of the type
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Getter for the total attribute
+     *
+     * @return the sum of the amounts of the transactions of the type
+     */
+    public double getTotal() {
+        return total;
+    }
+
+    /**
+     * Getter for the min attribute
+     *
+     * @return the smallest amount of a transaction of the type
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Getter for the max attribute
+     *
+     * @return the largest amount of a transaction of the type
+     */
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,168 @@
+package net.flanche.transactionapp;
+
+import net.flanche.transactionapp.transaction.service.DuplicateTransactionException;
+import net.flanche.transactionapp.transaction.service.TransactionService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+/**
+ * Stress test for the write path. Many threads insert transactions at the same time and we check that no insert
+ * is lost, that every contested id has exactly one winner and that the subtree totals stay consistent.
+ * The throughput of each run is logged at debug level so it can be compared between backends and machines.
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = TransactionApplication.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+@WebAppConfiguration
+public class ConcurrentSaveTransactionTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentSaveTransactionTest.class);
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int TRANSACTIONS_PER_THREAD = 500;
+    private static final int CONTESTED_TRANSACTIONS = 200;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+    @Autowired
+    private TransactionService transactionService;
+    private MockMvc mockMvc;
+    private ExecutorService executor;
+
+    @Before
+    public void before() {
+        this.mockMvc = webAppContextSetup(webApplicationContext).build();
+        this.executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Test
+    public void testConcurrentInsertsOfDistinctIds() throws Exception {
+        transactionService.saveTransaction(0, "root", new BigDecimal("1"));
+
+        // every thread inserts its own ids, half of them under the shared root to contend on its subtree total
+        long start = System.nanoTime();
+        runConcurrently(thread -> {
+            for (int i = 0; i < TRANSACTIONS_PER_THREAD; i++) {
+                long transactionId = 1 + (long) thread * TRANSACTIONS_PER_THREAD + i;
+                if (i % 2 == 0) {
+                    transactionService.saveTransaction(transactionId, "type" + thread, new BigDecimal("2"), 0);
+                } else {
+                    transactionService.saveTransaction(transactionId, "type" + thread, new BigDecimal("3"));
+                }
+            }
+        });
+        reportThroughput("distinct ids", THREADS * TRANSACTIONS_PER_THREAD, System.nanoTime() - start);
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            Assert.assertEquals(TRANSACTIONS_PER_THREAD, transactionService.getTransactionsOfType("type" + thread).size());
+        }
+        BigDecimal expectedRootTotal = new BigDecimal(1 + 2 * THREADS * TRANSACTIONS_PER_THREAD / 2);
+        Assert.assertEquals(0, transactionService.getTotalAmountOfChildrenTransactions(0).compareTo(expectedRootTotal));
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(0));
+    }
+
+    @Test
+    public void testConcurrentInsertsOfSameIds() throws Exception {
+        AtomicIntegerArray winners = new AtomicIntegerArray(CONTESTED_TRANSACTIONS);
+        AtomicInteger duplicates = new AtomicInteger();
+
+        // every thread tries to insert the same ids, exactly one of them must succeed for each id
+        long start = System.nanoTime();
+        runConcurrently(thread -> {
+            for (int i = 0; i < CONTESTED_TRANSACTIONS; i++) {
+                try {
+                    transactionService.saveTransaction(i, "contested", new BigDecimal("1"));
+                    winners.incrementAndGet(i);
+                } catch (DuplicateTransactionException e) {
+                    duplicates.incrementAndGet();
+                }
+            }
+        });
+        reportThroughput("same ids", THREADS * CONTESTED_TRANSACTIONS, System.nanoTime() - start);
+
+        for (int i = 0; i < CONTESTED_TRANSACTIONS; i++) {
+            Assert.assertEquals("Transaction " + i + " must be inserted exactly once", 1, winners.get(i));
+        }
+        Assert.assertEquals((THREADS - 1) * CONTESTED_TRANSACTIONS, duplicates.get());
+        Assert.assertEquals(CONTESTED_TRANSACTIONS, transactionService.getTransactionsOfType("contested").size());
+    }
+
+    @Test
+    public void testConcurrentPutsOfSameIdReturnConflict() throws Exception {
+        String jsonRequest = "{\"amount\": 10, \"type\": \"cars\"}";
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            int status = mockMvc.perform(put("/transactionservice/transaction/1").content(jsonRequest).contentType(MediaType.APPLICATION_JSON))
+                    .andReturn().getResponse().getStatus();
+            if (status == 200) {
+                created.incrementAndGet();
+            } else if (status == 409) {
+                conflicts.incrementAndGet();
+            }
+        });
+
+        Assert.assertEquals(1, created.get());
+        Assert.assertEquals(THREADS - 1, conflicts.get());
+    }
+
+    /**
+     * Runs the task on every thread at once and rethrows the first failure
+     */
+    private void runConcurrently(ThreadTask task) throws Exception {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int threadIndex = thread;
+            futures.add(executor.submit(() -> {
+                startSignal.await();
+                task.run(threadIndex);
+                return null;
+            }));
+        }
+        startSignal.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void reportThroughput(String scenario, int operations, long elapsedNanos) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} [{}]: {} inserts on {} threads in {} ms, {} inserts/s", getClass().getSimpleName(), scenario,
+                    operations, THREADS, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    Math.round(operations / (elapsedNanos / 1e9)));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,186 @@
+package net.flanche.transactionapp;
+
+import net.flanche.transactionapp.metrics.TransactionMetrics;
+import net.flanche.transactionapp.transaction.domain.Transaction;
+import net.flanche.transactionapp.transaction.service.InvalidTransactionAmount;
+import net.flanche.transactionapp.transaction.service.TransactionService;
+import net.flanche.transactionapp.transaction.service.impl.InMemoryTransactionServiceImpl;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Tests that the in-memory store rebuilds its transactions and subtree totals from the transaction log and its
+ * snapshots on startup
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+public class InMemoryTransactionLogTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int AMOUNT_SCALE = 2;
+    private static final long PARALLEL_THRESHOLD = 10;
+
+    @Rule
+    public TemporaryFolder logDirectory = new TemporaryFolder();
+    private final Map<String, Double> gauges = new ConcurrentHashMap<>();
+
+    @Test
+    public void testReplay() throws Exception {
+        InMemoryTransactionServiceImpl transactionService = open();
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20.50"), 1);
+        transactionService.saveTransaction(3, "some-other-type", new BigDecimal("100"), 2);
+        transactionService.saveTransaction(4, "some-other-type", new BigDecimal("40"), 1);
+        // enough records to span several mapped segments
+        for (long id = 5; id < 1000; id++) {
+            transactionService.saveTransaction(id, "bulk", BigDecimal.ONE, 4);
+        }
+        int bulkTypeId = transactionService.getTransactionById(5).get().getTransactionType().getId();
+        transactionService.close();
+
+        InMemoryTransactionServiceImpl replayedService = open();
+        Transaction transaction = replayedService.getTransactionById(2).get();
+        Assert.assertEquals(transaction.getType(), "some-type");
+        // the type ids come from the dictionary of the log, so they survive a restart
+        Assert.assertEquals(bulkTypeId, replayedService.getTransactionById(5).get().getTransactionType().getId());
+        Assert.assertEquals(transaction.getAmount(), new BigDecimal("20.50"));
+        Assert.assertEquals(transaction.getParentId().get().longValue(), 1);
+        Assert.assertEquals(0, replayedService.getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("1165.50")));
+        Assert.assertEquals(0, replayedService.getTotalAmountOfChildrenTransactions(2).compareTo(new BigDecimal("120.50")));
+        Assert.assertTrue(replayedService.checkTotalAmountOfChildrenTransactions(1));
+        Assert.assertEquals(replayedService.getTransactionsOfType("some-other-type").stream()
+                .map(Transaction::getId).collect(Collectors.toList()), Arrays.asList(3L, 4L));
+        Assert.assertEquals(995, replayedService.getTransactionsOfType("bulk").size());
+
+        // the replayed store keeps appending after the replayed records
+        replayedService.saveTransaction(1000, "some-type", new BigDecimal("5"), 3);
+        replayedService.close();
+        TransactionService reopenedService = open();
+        Assert.assertEquals(0, reopenedService.getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("1170.50")));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        InMemoryTransactionServiceImpl transactionService = open();
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20.50"), 1);
+        transactionService.saveTransaction(3, "some-other-type", new BigDecimal("100"), 2);
+        transactionService.snapshot();
+        Assert.assertEquals(3, gauges.get("transaction.snapshot.transactions").intValue());
+        Assert.assertTrue(gauges.get("transaction.snapshot.size") > 0);
+        // saved after the snapshot, so replayed from the log on top of it
+        transactionService.saveTransaction(4, "some-other-type", new BigDecimal("40"), 3);
+        transactionService.saveTransaction(5, "some-type", new BigDecimal("5"));
+        transactionService.close();
+
+        InMemoryTransactionServiceImpl replayedService = open();
+        Assert.assertTrue(gauges.containsKey("transaction.snapshot.load.duration"));
+        Assert.assertEquals(0, replayedService.getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("170.50")));
+        Assert.assertEquals(0, replayedService.getTotalAmountOfChildrenTransactions(3).compareTo(new BigDecimal("140")));
+        Assert.assertTrue(replayedService.checkTotalAmountOfChildrenTransactions(1));
+        Assert.assertEquals(replayedService.getTransactionById(3).get().getParentId().get().longValue(), 2);
+        Assert.assertEquals(replayedService.getTransactionsOfType("some-type").stream()
+                .map(Transaction::getId).collect(Collectors.toList()), Arrays.asList(1L, 2L, 5L));
+
+        // a second snapshot replaces the first one
+        replayedService.snapshot();
+        replayedService.close();
+        Assert.assertEquals(1, logDirectory.getRoot().list((directory, name) -> name.startsWith("snapshot-")).length);
+        Assert.assertEquals(0, open().getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("170.50")));
+    }
+
+    @Test
+    public void testParallelSum() throws Exception {
+        InMemoryTransactionServiceImpl transactionService = open(PARALLEL_THRESHOLD);
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        // a wide level under the root and a deep chain under its first child
+        for (long id = 2; id < 200; id++) {
+            transactionService.saveTransaction(id, "some-type", BigDecimal.ONE, 1);
+        }
+        for (long id = 200; id < 400; id++) {
+            transactionService.saveTransaction(id, "some-type", BigDecimal.ONE, id == 200 ? 2 : id - 1);
+        }
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(1));
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(2));
+        transactionService.snapshot();
+        transactionService.saveTransaction(400, "some-type", BigDecimal.ONE, 399);
+        transactionService.close();
+
+        // the subtree sizes splitting the sums are rebuilt from the snapshot and the log
+        InMemoryTransactionServiceImpl replayedService = open(PARALLEL_THRESHOLD);
+        Assert.assertEquals(0, replayedService.getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("409")));
+        Assert.assertTrue(replayedService.checkTotalAmountOfChildrenTransactions(1));
+        Assert.assertTrue(replayedService.checkTotalAmountOfChildrenTransactions(2));
+        replayedService.close();
+    }
+
+    @Test
+    public void testAmountTooLarge() throws Exception {
+        InMemoryTransactionServiceImpl transactionService = open();
+        try {
+            transactionService.saveTransaction(1, "some-type", new BigDecimal("123456789012345678901234567890"));
+            Assert.fail("Saved a transaction whose amount does not fit into a long");
+        } catch (InvalidTransactionAmount e) {
+            // correct exception
+        }
+        Assert.assertFalse(transactionService.getTransactionById(1).isPresent());
+        transactionService.close();
+    }
+
+    @Test
+    public void testFailedAppend() throws Exception {
+        InMemoryTransactionServiceImpl transactionService = open();
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        // the log is closed, so the new type cannot be appended to its dictionary
+        transactionService.close();
+        try {
+            transactionService.saveTransaction(2, "some-other-type", new BigDecimal("20"), 1);
+            Assert.fail("Saved a transaction that could not be logged");
+        } catch (UncheckedIOException e) {
+            // correct exception
+        }
+        Assert.assertFalse(transactionService.getTransactionById(2).isPresent());
+        Assert.assertTrue(transactionService.getTransactionsOfType("some-other-type").isEmpty());
+        Assert.assertEquals(0, transactionService.getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("10")));
+    }
+
+    @Test
+    public void testLogShorterThanSnapshot() throws Exception {
+        InMemoryTransactionServiceImpl transactionService = open();
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
+        transactionService.snapshot();
+        transactionService.close();
+
+        // a crash lost the last record the snapshot covers, clear its valid flag
+        try (FileChannel log = FileChannel.open(logDirectory.getRoot().toPath().resolve("transactions.log"), StandardOpenOption.WRITE)) {
+            log.write(ByteBuffer.wrap(new byte[1]), 32 + 29);
+        }
+        try {
+            open();
+            Assert.fail("Started with a log shorter than the snapshot");
+        } catch (IOException e) {
+            // correct exception
+        }
+    }
+
+    private InMemoryTransactionServiceImpl open() throws Exception {
+        return open(10000);
+    }
+
+    private InMemoryTransactionServiceImpl open(long sumParallelThreshold) throws Exception {
+        return new InMemoryTransactionServiceImpl(AMOUNT_SCALE, logDirectory.getRoot().getAbsolutePath(), SEGMENT_SIZE, true, 0, sumParallelThreshold, 4, gauges::put, new TransactionMetrics());
+    }
+}
@@ -0,0 +1,12 @@
+package net.flanche.transactionapp;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the transaction service unit tests against the in-memory store
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@TestPropertySource(properties = "transaction.store=memory")
+public class InMemoryTransactionServiceTest extends TransactionServiceTest {
+}
@@ -0,0 +1,12 @@
+package net.flanche.transactionapp;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the transaction service unit tests with the RECURSIVE sum strategy
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@TestPropertySource(properties = "transaction.sum-strategy=RECURSIVE")
+public class RecursiveSumTransactionServiceTest extends TransactionServiceTest {
+}
@@ -1,6 +1,9 @@
 package net.flanche.transactionapp;
 
+import com.jayway.jsonpath.JsonPath;
+import net.flanche.transactionapp.transaction.service.TransactionRecord;
 import net.flanche.transactionapp.transaction.service.TransactionService;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,15 +14,30 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
@@ -44,6 +62,16 @@ public class RestApiTest {
         this.mockMvc = webAppContextSetup(webApplicationContext).build();
     }
 
+    /**
+     * Performs a request answered asynchronously and dispatches it again once the answer is ready, as the server does
+     */
+    private ResultActions performAsync(RequestBuilder requestBuilder) throws Exception {
+        MvcResult mvcResult = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(mvcResult));
+    }
+
     @Test
     public void testPut() throws Exception {
         // Normal request
@@ -103,6 +131,110 @@ public class RestApiTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    public void testLookup() throws Exception {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("5500.50"));
+        transactionService.saveTransaction(2, "some-other-type", new BigDecimal("4000"), 1);
+
+        // the transactions found come in the order of the ids, followed by the missing ids
+        performAsync(post("/transactionservice/transactions/lookup").content("[2, 3, 1]").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactions", hasSize(2)))
+                .andExpect(jsonPath("$.transactions[0].id", is(2)))
+                .andExpect(jsonPath("$.transactions[0].type", is("some-other-type")))
+                .andExpect(jsonPath("$.transactions[0].amount", is(4000d)))
+                .andExpect(jsonPath("$.transactions[0].parent_id", is(1)))
+                .andExpect(jsonPath("$.transactions[1].id", is(1)))
+                .andExpect(jsonPath("$.transactions[1].amount", is(5500.50)))
+                .andExpect(jsonPath("$.missing", contains(3)));
+
+        // a null id is a bad request
+        mockMvc.perform(post("/transactionservice/transactions/lookup").content("[1, null]").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+
+        // one line per chunk of ids when newline delimited JSON is accepted
+        MvcResult mvcResult = mockMvc.perform(post("/transactionservice/transactions/lookup").content("[1, 3]")
+                .contentType(MediaType.APPLICATION_JSON).accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string("{\"transactions\":[{\"id\":1,\"type\":\"some-type\",\"amount\":5500.5}],\"missing\":[3]}\n"));
+
+        // the ids are parsed one chunk at a time, and an invalid id in the first chunk is still a bad request
+        String ids = LongStream.rangeClosed(1, 1500).mapToObj(Long::toString).collect(Collectors.joining(",", "[", "]"));
+        mvcResult = mockMvc.perform(post("/transactionservice/transactions/lookup").content(ids)
+                .contentType(MediaType.APPLICATION_JSON).accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String[] lines = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString().split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertTrue(lines[1].startsWith("{\"transactions\":[],\"missing\":[1001,1002,"));
+        mockMvc.perform(post("/transactionservice/transactions/lookup").content("[1, \"2\"]")
+                .contentType(MediaType.APPLICATION_JSON).accept("application/x-ndjson"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testBinaryFormat() throws Exception {
+        String binary = "application/x-transaction-binary";
+        byte[] type = "cars".getBytes(StandardCharsets.UTF_8);
+        byte[] record = ByteBuffer.allocate(28 + type.length)
+                .putLong(1).putLong(0).putLong(500050).put((byte) 2).put((byte) 0).putShort((short) type.length).put(type)
+                .array();
+        byte[] saved = mockMvc.perform(put("/transactionservice/transaction/1").content(record).contentType(binary).accept(binary))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        Assert.assertArrayEquals(record, saved);
+        transactionService.saveTransaction(2, "parts", new BigDecimal("12.5"), 1);
+
+        ByteBuffer transaction = ByteBuffer.wrap(mockMvc.perform(get("/transactionservice/transaction/2").accept(binary))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+        Assert.assertEquals(2, transaction.getLong());
+        Assert.assertEquals(1, transaction.getLong());
+        Assert.assertEquals(0, BigDecimal.valueOf(transaction.getLong(), transaction.get()).compareTo(new BigDecimal("12.5")));
+        Assert.assertEquals(1, transaction.get());
+
+        // the id of the record has to match the one of the path, and a record cut short or followed by other bytes is a
+        // bad request
+        mockMvc.perform(put("/transactionservice/transaction/3").content(record).contentType(binary).accept(binary))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/transactionservice/transaction/1").content(Arrays.copyOf(record, 20)).contentType(binary).accept(binary))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/transactionservice/transaction/1").content(Arrays.copyOf(record, record.length + 1)).contentType(binary).accept(binary))
+                .andExpect(status().isBadRequest());
+
+        MvcResult mvcResult = mockMvc.perform(post("/transactionservice/transactions/lookup")
+                .content(ByteBuffer.allocate(16).putLong(2).putLong(3).array()).contentType(binary).accept(binary))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        ByteBuffer lookup = ByteBuffer.wrap(mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray());
+        Assert.assertEquals(1, lookup.getInt());
+        Assert.assertEquals(2, lookup.getLong());
+        lookup.position(lookup.position() + 18);
+        lookup.position(lookup.position() + (lookup.getShort() & 0xFFFF));
+        Assert.assertEquals(1, lookup.getInt());
+        Assert.assertEquals(3, lookup.getLong());
+
+        // more ids than fit into one page are a bad request, like with JSON
+        mockMvc.perform(post("/transactionservice/transactions/lookup")
+                .content(new byte[10001 * 8]).contentType(binary).accept(binary))
+                .andExpect(status().isBadRequest());
+
+        mvcResult = mockMvc.perform(get("/transactionservice/types/cars").accept(binary))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] ids = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        Assert.assertArrayEquals(ByteBuffer.allocate(8).putLong(1).array(), ids);
+    }
+
     @Test
     public void testTypes() throws Exception {
         // Typical request, add 3 transactions, 2 of some type, one of some other, check if the ids match
@@ -110,18 +242,79 @@ public class RestApiTest {
         transactionService.saveTransaction(2, "some-type", new BigDecimal("5500.50"));
         transactionService.saveTransaction(3, "some-other-type", new BigDecimal("5500.50"));
 
-        mockMvc.perform(get("/transactionservice/types/some-type"))
+        performAsync(get("/transactionservice/types/some-type"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(2)))
                 .andExpect(jsonPath("$[0]", is(1)))
                 .andExpect(jsonPath("$[1]", is(2)));
 
-        mockMvc.perform(get("/transactionservice/types/some-other-type"))
+        performAsync(get("/transactionservice/types/some-other-type"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(1)))
                 .andExpect(jsonPath("$[0]", is(3)));
     }
 
+    @Test
+    public void testTypesStream() throws Exception {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("5500.50"));
+        transactionService.saveTransaction(2, "some-other-type", new BigDecimal("5500.50"));
+        transactionService.saveTransaction(3, "some-type", new BigDecimal("5500.50"));
+
+        // the ids are written one per line when newline delimited JSON is accepted
+        MvcResult mvcResult = mockMvc.perform(get("/transactionservice/types/some-type").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string("1\n3\n"));
+
+        // a type without transactions gives an empty body
+        mvcResult = mockMvc.perform(get("/transactionservice/types/missing-type").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void testTypesPage() throws Exception {
+        for (int id = 1; id <= 5; id++) {
+            transactionService.saveTransaction(id, "some-type", new BigDecimal(id * 100));
+        }
+        transactionService.saveTransaction(6, "some-other-type", new BigDecimal("100"));
+
+        // walk through the pages following the cursors
+        String firstPage = performAsync(get("/transactionservice/types/some-type").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ids", contains(1, 2)))
+                .andExpect(jsonPath("$.next_cursor", notNullValue()))
+                .andReturn().getResponse().getContentAsString();
+        String secondPage = performAsync(get("/transactionservice/types/some-type").param("limit", "2")
+                .param("cursor", JsonPath.<String>read(firstPage, "$.next_cursor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ids", contains(3, 4)))
+                .andReturn().getResponse().getContentAsString();
+        performAsync(get("/transactionservice/types/some-type").param("limit", "2")
+                .param("cursor", JsonPath.<String>read(secondPage, "$.next_cursor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ids", contains(5)))
+                .andExpect(jsonPath("$.next_cursor").doesNotExist());
+
+        // id and amount ranges are inclusive
+        performAsync(get("/transactionservice/types/some-type").param("limit", "10")
+                .param("min_id", "2").param("max_amount", "400"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ids", contains(2, 3, 4)))
+                .andExpect(jsonPath("$.next_cursor").doesNotExist());
+
+        // malformed cursor and limit
+        performAsync(get("/transactionservice/types/some-type").param("limit", "2").param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest());
+        performAsync(get("/transactionservice/types/some-type").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void testSum() throws Exception {
         transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
@@ -133,24 +326,155 @@ public class RestApiTest {
         transactionService.saveTransaction(7, "some-other-type", new BigDecimal("140"), 2);
         transactionService.saveTransaction(8, "some-other-type", new BigDecimal("230"), 7);
 
-        mockMvc.perform(get("/transactionservice/sum/1"))
+        performAsync(get("/transactionservice/sum/1"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.sum", is(780d)));
 
-        mockMvc.perform(get("/transactionservice/sum/8"))
+        performAsync(get("/transactionservice/sum/8"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.sum", is(230d)));
 
-        mockMvc.perform(get("/transactionservice/sum/5"))
+        performAsync(get("/transactionservice/sum/5"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.sum", is(130d)));
 
-        mockMvc.perform(get("/transactionservice/sum/2"))
+        performAsync(get("/transactionservice/sum/2"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.sum", is(640d)));
 
-        mockMvc.perform(get("/transactionservice/sum/17"))
+        performAsync(get("/transactionservice/sum/17"))
+                .andExpect(status().isNotFound());
+
+    }
+
+    @Test
+    public void testTypeStats() throws Exception {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("-2.50"), 1);
+        transactionService.saveTransactions(Arrays.asList(
+                new TransactionRecord(3, "some-other-type", new BigDecimal("100"), 2L),
+                new TransactionRecord(4, "some-type", new BigDecimal("7.25"), 3L),
+                new TransactionRecord(4, "some-type", new BigDecimal("1000"), null)));
+
+        mockMvc.perform(get("/transactionservice/types/some-type/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.type", is("some-type")))
+                .andExpect(jsonPath("$.count", is(3)))
+                .andExpect(jsonPath("$.total", is(14.75d)))
+                .andExpect(jsonPath("$.min", is(-2.5d)))
+                .andExpect(jsonPath("$.max", is(10d)));
+
+        mockMvc.perform(get("/transactionservice/types/missing-type/stats"))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(get("/transactionservice/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].type", is("some-other-type")))
+                .andExpect(jsonPath("$[0].count", is(1)))
+                .andExpect(jsonPath("$[0].total", is(100d)))
+                .andExpect(jsonPath("$[1].type", is("some-type")));
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
+        transactionService.saveTransaction(3, "some-other-type", new BigDecimal("30"), 2);
+        transactionService.saveTransaction(4, "some-other-type", new BigDecimal("40"), 3);
+        transactionService.saveTransaction(5, "some-other-type", new BigDecimal("50"), 1);
+        transactionService.saveTransaction(6, "some-other-type", new BigDecimal("60"));
+
+        // the subtree is ordered by depth, the depth being relative to the requested transaction
+        performAsync(get("/transactionservice/tree/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].id", contains(1, 2, 5, 3, 4)))
+                .andExpect(jsonPath("$[*].depth", contains(0, 1, 1, 2, 3)))
+                .andExpect(jsonPath("$[0].parent_id").doesNotExist())
+                .andExpect(jsonPath("$[3].parent_id", is(2)))
+                .andExpect(jsonPath("$[3].amount", is(30d)));
+
+        // the depth limit is counted from the requested transaction
+        performAsync(get("/transactionservice/tree/2").param("max_depth", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].id", contains(2, 3)))
+                .andExpect(jsonPath("$[*].depth", contains(0, 1)));
+
+        performAsync(get("/transactionservice/tree/17"))
                 .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void testPutAll() throws Exception {
+        transactionService.saveTransaction(1, "cars", new BigDecimal("100"));
 
+        // the batch can use parents saved before it and parents from earlier in the same batch
+        String jsonRequest = "[" +
+                "{\"id\": 2, \"amount\": 10, \"type\": \"parts\", \"parent_id\": 1}," +
+                "{\"id\": 3, \"amount\": 20, \"type\": \"parts\", \"parent_id\": 2}," +
+                "{\"id\": 1, \"amount\": 30, \"type\": \"cars\"}," +
+                "{\"id\": 4, \"amount\": 40, \"type\": \"parts\", \"parent_id\": 17}," +
+                "{\"id\": 5, \"amount\": 50, \"type\": \"\"}," +
+                "{\"amount\": 60, \"type\": \"parts\"}" +
+                "]";
+        mockMvc.perform(put("/transactionservice/transactions").content(jsonRequest).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(6)))
+                .andExpect(jsonPath("$[0].status", is(200)))
+                .andExpect(jsonPath("$[1].status", is(200)))
+                .andExpect(jsonPath("$[2].status", is(409)))
+                .andExpect(jsonPath("$[3].status", is(400)))
+                .andExpect(jsonPath("$[4].status", is(400)))
+                .andExpect(jsonPath("$[5].status", is(400)));
+
+        mockMvc.perform(get("/transactionservice/transaction/3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.parent_id", is(2)));
+        performAsync(get("/transactionservice/sum/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sum", is(130d)));
+
+        // newline delimited records, an unreadable line does not stop the batch
+        String ndjsonRequest = "{\"id\": 6, \"amount\": 5, \"type\": \"parts\", \"parent_id\": 3}\n" +
+                "not a record\n" +
+                "{\"id\": 7, \"amount\": 5, \"type\": \"parts\", \"parent_id\": 6}\n";
+        mockMvc.perform(put("/transactionservice/transactions").content(ndjsonRequest).contentType("application/x-ndjson"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].id", is(6)))
+                .andExpect(jsonPath("$[0].status", is(200)))
+                .andExpect(jsonPath("$[1].status", is(400)))
+                .andExpect(jsonPath("$[2].id", is(7)))
+                .andExpect(jsonPath("$[2].status", is(200)));
+        performAsync(get("/transactionservice/sum/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sum", is(140d)));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        String jsonRequest = "{ \n" +
+                "\"amount\": 5000, \n" +
+                "\"type\": \"cars\"\n" +
+                "}";
+        mockMvc.perform(put("/transactionservice/transaction/1").content(jsonRequest).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/transactionservice/transaction/1").content(jsonRequest).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+        performAsync(get("/transactionservice/sum/2"))
+                .andExpect(status().isNotFound());
+
+        // latencies of the endpoints and of the service methods, error statuses and repository queries
+        mockMvc.perform(get("/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['transaction.http.put.nanos.count']", is(2)))
+                .andExpect(jsonPath("$['transaction.http.status.409']", is(1)))
+                .andExpect(jsonPath("$['transaction.http.status.404']", is(1)))
+                .andExpect(jsonPath("$['transaction.service.saveTransaction.nanos.count']", is(2)))
+                .andExpect(jsonPath("$['transaction.service.saveTransaction.errors']", is(1)))
+                .andExpect(jsonPath("$['transaction.service.getTotalAmountOfChildrenTransactions.errors']", is(1)))
+                .andExpect(jsonPath("$['transaction.http.put.queries.max']", greaterThan(0)))
+                .andExpect(jsonPath("$['transaction.service.getTotalAmountOfChildrenTransactions.queries.max']", greaterThan(0)))
+                .andExpect(jsonPath("$['transaction.query-executor.queued']", is(0)));
     }
 }
@@ -11,6 +11,9 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -28,7 +31,7 @@ public class TransactionServiceTest {
     private TransactionService transactionService;
 
     @Test
-    public void testSaveTransaction() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction {
+    public void testSaveTransaction() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionAmount {
         transactionService.saveTransaction(1, "some-type", new BigDecimal("5500.50"));
         Assert.assertTrue(transactionService.getTransactionById(1).isPresent());
         Assert.assertEquals(transactionService.getTransactionById(1).get().getId(), 1);
@@ -53,11 +56,25 @@ public class TransactionServiceTest {
         } catch (InvalidTransactionType e) {
             // correct exception
         }
+
+        //a taken id is reported before an invalid type or parent, whichever store is used
+        try {
+            transactionService.saveTransaction(2, null, new BigDecimal("4500.50"), 4);
+            Assert.fail("Saved a transaction with a duplicate id");
+        } catch (DuplicateTransactionException e) {
+            // correct exception
+        }
+        try {
+            transactionService.saveTransaction(1, "", new BigDecimal("4500.50"));
+            Assert.fail("Saved a transaction with a duplicate id");
+        } catch (DuplicateTransactionException e) {
+            // correct exception
+        }
     }
 
 
     @Test
-    public void testGetTransaction() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction {
+    public void testGetTransaction() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionAmount {
         transactionService.saveTransaction(1, "some-type", new BigDecimal("5500.50"));
         Assert.assertTrue(transactionService.getTransactionById(1).isPresent());
         Assert.assertEquals(transactionService.getTransactionById(1).get().getId(), 1);
@@ -66,7 +83,38 @@ public class TransactionServiceTest {
     }
 
     @Test
-    public void testGetTransactionsOfType() throws DuplicateTransactionException, InvalidTransactionType {
+    public void testGetTransactionsByIds() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionAmount {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-other-type", new BigDecimal("20"), 1);
+        transactionService.saveTransaction(3, "some-type", new BigDecimal("30"));
+        List<Transaction> transactions = transactionService.getTransactionsByIds(Arrays.asList(3L, 4L, 2L, 1L));
+        Assert.assertEquals(transactions.stream().map(Transaction::getId).collect(Collectors.toList()), Arrays.asList(3L, 2L, 1L));
+        Assert.assertEquals(transactions.get(1).getType(), "some-other-type");
+        Assert.assertEquals(transactions.get(1).getParentId().get().longValue(), 1);
+        Assert.assertTrue(transactionService.getTransactionsByIds(Collections.singletonList(4L)).isEmpty());
+    }
+
+    @Test
+    public void testGetTransactionSavedAfterMissedLookup() throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
+        //a lookup of a missing id must not hide the transaction once it is saved
+        Assert.assertFalse(transactionService.getTransactionById(1).isPresent());
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        Assert.assertTrue(transactionService.getTransactionById(1).isPresent());
+        Assert.assertEquals(transactionService.getTransactionById(1).get().getType(), "some-type");
+    }
+
+    @Test
+    public void testGetParentId() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionAmount {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
+        transactionService.saveTransaction(3, "some-type", new BigDecimal("30"), 2);
+        Assert.assertFalse(transactionService.getTransactionById(1).get().getParentId().isPresent());
+        Assert.assertEquals(transactionService.getTransactionById(3).get().getParentId().get().longValue(), 2);
+        Assert.assertEquals(transactionService.getTransactionById(3).get().getParentTransaction().get().getId(), 2);
+    }
+
+    @Test
+    public void testGetTransactionsOfType() throws DuplicateTransactionException, InvalidTransactionType, InvalidTransactionAmount {
         transactionService.saveTransaction(1, "type1", new BigDecimal("5500.50"));
         transactionService.saveTransaction(2, "type2", new BigDecimal("5500.50"));
         transactionService.saveTransaction(3, "type1", new BigDecimal("5500.50"));
@@ -102,7 +150,23 @@ public class TransactionServiceTest {
     }
 
     @Test
-    public void testGetTotalAmountOfChildrenTransactions() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId {
+    public void testTransactionTypeDictionary() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionAmount {
+        transactionService.saveTransaction(1, "type1", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "type1", new BigDecimal("20"), 1);
+        transactionService.saveTransaction(3, "type2", new BigDecimal("30"), 1);
+
+        //transactions of the same type refer to the same entry of the type dictionary
+        Assert.assertEquals(transactionService.getTransactionById(1).get().getTransactionType().getId(),
+                transactionService.getTransactionById(2).get().getTransactionType().getId());
+        Assert.assertNotEquals(transactionService.getTransactionById(1).get().getTransactionType().getId(),
+                transactionService.getTransactionById(3).get().getTransactionType().getId());
+        Assert.assertEquals(transactionService.getTransactionById(3).get().getType(), "type2");
+        Assert.assertEquals(2, transactionService.getTransactionsOfType("type1").size());
+        Assert.assertEquals(0, transactionService.streamTransactionIdsOfType("type3").count());
+    }
+
+    @Test
+    public void testGetTotalAmountOfChildrenTransactions() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId, InvalidTransactionAmount {
         transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
         transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
         transactionService.saveTransaction(3, "some-other-type", new BigDecimal("100"), 2);
@@ -113,10 +177,10 @@ public class TransactionServiceTest {
         transactionService.saveTransaction(8, "some-other-type", new BigDecimal("230"), 7);
 
         //normal test cases for different branches of the tree
-        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(1), new BigDecimal("780"));
-        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(8), new BigDecimal("230d"));
-        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(5), new BigDecimal("130d"));
-        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(2), new BigDecimal("640"));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(1), new BigDecimal("780.00"));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(8), new BigDecimal("230.00"));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(5), new BigDecimal("130.00"));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(2), new BigDecimal("640.00"));
 
         //try with an invalid id
         try {
@@ -126,5 +190,121 @@ public class TransactionServiceTest {
             // test passed
         }
     }
-}
 
+    @Test
+    public void testDeepChain() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId, InvalidTransactionAmount {
+        //ids of 13 digits make a materialized path of over 5000 characters at the bottom of the chain
+        long firstId = 1_000_000_000_000L;
+        int depth = 400;
+        List<TransactionRecord> records = new ArrayList<>(depth);
+        records.add(new TransactionRecord(firstId, "some-type", new BigDecimal("1"), null));
+        for (int i = 1; i < depth; i++) {
+            records.add(new TransactionRecord(firstId + i, "some-type", new BigDecimal("1"), firstId + i - 1));
+        }
+        Assert.assertEquals(Collections.nCopies(depth, SaveStatus.SAVED), transactionService.saveTransactions(records));
+        transactionService.saveTransaction(firstId + depth, "some-type", new BigDecimal("1"), firstId + depth - 1);
+
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(firstId), new BigDecimal(depth + 1).setScale(2));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(firstId + depth - 1), new BigDecimal("2.00"));
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(firstId));
+    }
+
+    @Test
+    public void testCheckTotalAmountOfChildrenTransactions() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId, InvalidTransactionAmount {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
+        transactionService.saveTransaction(3, "some-other-type", new BigDecimal("100"), 2);
+        transactionService.saveTransaction(4, "some-other-type", new BigDecimal("150.25"), 3);
+        transactionService.saveTransaction(5, "some-other-type", new BigDecimal("40"), 1);
+
+        //the maintained totals must match a full recomputation of each subtree
+        for (long transactionId = 1; transactionId <= 5; transactionId++) {
+            Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(transactionId));
+        }
+        Assert.assertEquals(0, transactionService.getTotalAmountOfChildrenTransactions(1).compareTo(new BigDecimal("320.25")));
+
+        //try with an invalid id
+        try {
+            transactionService.checkTotalAmountOfChildrenTransactions(23);
+            Assert.fail("The TransactionService::checkTotalAmountOfChildrenTransactions worked with an invalid id.");
+        } catch (InvalidTransactionId e) {
+            // test passed
+        }
+    }
+
+    @Test
+    public void testSaveTransactionAmount() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId, InvalidTransactionAmount {
+        //amounts are kept at the configured scale of 2 decimals
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("90000000000000000"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("0.5"), 1);
+        Assert.assertEquals(transactionService.getTransactionById(2).get().getAmount(), new BigDecimal("0.50"));
+
+        try {
+            transactionService.saveTransaction(3, "some-type", new BigDecimal("1.005"), 1);
+            Assert.fail("Saved a transaction with more decimals than the amount scale");
+        } catch (InvalidTransactionAmount e) {
+            // correct exception
+        }
+
+        //the total of transaction 1 would not fit into a long anymore
+        try {
+            transactionService.saveTransaction(3, "some-type", new BigDecimal("5000000000000000"), 2);
+            Assert.fail("Saved a transaction overflowing the total of an ancestor");
+        } catch (InvalidTransactionAmount e) {
+            // correct exception
+        }
+        Assert.assertFalse(transactionService.getTransactionById(3).isPresent());
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(1), new BigDecimal("90000000000000000.50"));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(2), new BigDecimal("0.50"));
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(1));
+    }
+
+    @Test
+    public void testCachedQueriesSeeNewTransactions() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId, InvalidTransactionAmount {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
+
+        // the queries are run twice so the second answer can come from the query cache
+        Assert.assertEquals(2, transactionService.getTransactionsOfType("some-type").size());
+        Assert.assertEquals(2, transactionService.getTransactionsOfType("some-type").size());
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(1));
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(1));
+
+        // a new member of the type and a new child must both invalidate the cached results
+        transactionService.saveTransaction(3, "some-type", new BigDecimal("30"), 2);
+        Assert.assertEquals(3, transactionService.getTransactionsOfType("some-type").size());
+        Assert.assertTrue(transactionService.checkTotalAmountOfChildrenTransactions(1));
+        Assert.assertEquals(transactionService.getTotalAmountOfChildrenTransactions(1), new BigDecimal("60.00"));
+        Assert.assertEquals(1, transactionService.getTransactionTree(2, 1).stream().filter(transaction -> transaction.getId() == 3).count());
+    }
+
+    @Test
+    public void testGetTransactionTree() throws DuplicateTransactionException, InvalidTransactionType, InvalidParentTransaction, InvalidTransactionId, InvalidTransactionAmount {
+        transactionService.saveTransaction(1, "some-type", new BigDecimal("10"));
+        transactionService.saveTransaction(2, "some-type", new BigDecimal("20"), 1);
+        transactionService.saveTransaction(3, "some-other-type", new BigDecimal("30"), 2);
+        transactionService.saveTransaction(4, "some-other-type", new BigDecimal("40"), 1);
+        transactionService.saveTransaction(11, "some-other-type", new BigDecimal("50"));
+
+        // the subtree is ordered by depth, transaction 11 shares the leading digit of 1 but is not part of it
+        List<Long> result = transactionService.getTransactionTree(1, Integer.MAX_VALUE).stream()
+                .map(Transaction::getId)
+                .collect(Collectors.toList());
+        Assert.assertArrayEquals(new Long[]{1L, 2L, 4L, 3L}, result.toArray(new Long[0]));
+
+        // only the first level of descendants
+        result = transactionService.getTransactionTree(1, 1).stream()
+                .map(Transaction::getId)
+                .collect(Collectors.toList());
+        Assert.assertArrayEquals(new Long[]{1L, 2L, 4L}, result.toArray(new Long[0]));
+
+        Assert.assertEquals(1, transactionService.getTransactionTree(3, 5).size());
+
+        try {
+            transactionService.getTransactionTree(23, 1);
+            Assert.fail("The TransactionService::getTransactionTree worked with an invalid id.");
+        } catch (InvalidTransactionId e) {
+            // test passed
+        }
+    }
+}
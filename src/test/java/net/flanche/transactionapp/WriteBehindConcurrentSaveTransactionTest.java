@@ -0,0 +1,12 @@
+package net.flanche.transactionapp;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the write path stress test against the jpa store behind the write-behind buffer
+ *
+ * @author <a href="mailto:alex@flanche.net">Alex Dumitru</a>
+ */
+@TestPropertySource(properties = "transaction.write-behind.enabled=true")
+public class WriteBehindConcurrentSaveTransactionTest extends ConcurrentSaveTransactionTest {
+}